@@ -0,0 +1,147 @@
+package com.github.whentoleave.maps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Process;
+
+import com.google.android.maps.GeoPoint;
+
+/**
+ * Geocodes a batch of addresses in parallel, with a cap on how many requests
+ * run at once. Duplicate addresses are geocoded only once and results are
+ * returned in the order the addresses were given, optionally reporting each
+ * result as soon as it is available.
+ */
+class BatchGeocoder
+{
+	/**
+	 * Maximum number of threads shared by all batches
+	 */
+	private static final int MAX_THREADS = 8;
+	/**
+	 * Threads running geocoding requests for all batches. Kept separate from
+	 * {@link RoutingExecutor} as batches are usually started from one of its
+	 * threads and wait for their requests to complete.
+	 */
+	private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			BatchGeocoder.MAX_THREADS, BatchGeocoder.MAX_THREADS, 30,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+	static
+	{
+		BatchGeocoder.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Geocodes the given addresses, blocking until all of them have been
+	 * geocoded
+	 * 
+	 * @param addresses
+	 *            addresses to geocode
+	 * @param maxConcurrency
+	 *            maximum number of geocoding requests to run at once
+	 * @param listener
+	 *            listener notified of each address as soon as it has been
+	 *            geocoded, from the geocoding threads, or null
+	 * @return locations of the given addresses, in the same order, with null
+	 *         for any address which could not be geocoded
+	 */
+	static GeoPoint[] geocode(final List<String> addresses,
+			final int maxConcurrency,
+			final RouteInformation.LocationListener listener)
+	{
+		// Geocode each distinct address only once
+		final HashMap<String, Integer> distinctIndexes = new HashMap<String, Integer>();
+		final ArrayList<String> distinctAddresses = new ArrayList<String>();
+		final int[] addressIndexes = new int[addresses.size()];
+		for (int h = 0; h < addresses.size(); h++)
+		{
+			final String address = addresses.get(h);
+			final String key = TravelTimeCache.normalizeDestination(address);
+			Integer index = distinctIndexes.get(key);
+			if (index == null)
+			{
+				index = distinctAddresses.size();
+				distinctIndexes.put(key, index);
+				distinctAddresses.add(address);
+			}
+			addressIndexes[h] = index;
+		}
+		// Chain the addresses sharing each distinct address, to notify the
+		// listener of all of them at once
+		final int[] firstIndexes = new int[distinctAddresses.size()];
+		Arrays.fill(firstIndexes, -1);
+		final int[] nextIndexes = new int[addresses.size()];
+		for (int h = addresses.size() - 1; h >= 0; h--)
+		{
+			nextIndexes[h] = firstIndexes[addressIndexes[h]];
+			firstIndexes[addressIndexes[h]] = h;
+		}
+		final GeoPoint[] distinctPoints = new GeoPoint[distinctAddresses
+				.size()];
+		final AtomicInteger nextIndex = new AtomicInteger(0);
+		final int workerCount = Math.max(1,
+				Math.min(maxConcurrency, distinctAddresses.size()));
+		final CountDownLatch done = new CountDownLatch(workerCount);
+		final Runnable worker = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					int index;
+					while ((index = nextIndex.getAndIncrement()) < distinctPoints.length)
+					{
+						final GeoPoint point = RouteInformation
+								.getLocation(distinctAddresses.get(index));
+						distinctPoints[index] = point;
+						if (listener == null)
+							continue;
+						for (int h = firstIndexes[index]; h != -1; h = nextIndexes[h])
+							listener.onLocation(h, point);
+					}
+				} finally
+				{
+					done.countDown();
+				}
+			}
+		};
+		// The calling thread does its share of the work as well
+		for (int h = 1; h < workerCount; h++)
+			BatchGeocoder.executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					worker.run();
+				}
+			});
+		worker.run();
+		boolean interrupted = false;
+		while (true)
+			try
+			{
+				done.await();
+				break;
+			} catch (final InterruptedException e)
+			{
+				interrupted = true;
+			}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		final GeoPoint[] points = new GeoPoint[addresses.size()];
+		for (int h = 0; h < points.length; h++)
+			points[h] = distinctPoints[addressIndexes[h]];
+		return points;
+	}
+}
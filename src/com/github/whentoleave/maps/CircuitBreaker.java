@@ -0,0 +1,158 @@
+package com.github.whentoleave.maps;
+
+import java.util.Random;
+
+import android.os.SystemClock;
+
+/**
+ * Circuit breaker guarding requests to a remote service. After a number of
+ * consecutive failures the breaker opens and requests fail fast for a
+ * jittered, exponentially growing backoff period. Once the backoff expires a
+ * single probe request is let through (the half-open state): its success
+ * closes the breaker while its failure opens it again with a longer backoff.
+ */
+public class CircuitBreaker
+{
+	/**
+	 * Requests are let through
+	 */
+	private static final int STATE_CLOSED = 0;
+	/**
+	 * A single probe request has been let through and its result is awaited
+	 */
+	private static final int STATE_HALF_OPEN = 2;
+	/**
+	 * Requests fail fast until the backoff expires
+	 */
+	private static final int STATE_OPEN = 1;
+
+	/**
+	 * Backoff after the breaker first opens, in milliseconds
+	 */
+	private final long mBaseBackoff;
+	/**
+	 * Number of consecutive failures while closed
+	 */
+	private int mConsecutiveFailures = 0;
+	/**
+	 * Number of consecutive failures needed to open the breaker
+	 */
+	private final int mFailureThreshold;
+	/**
+	 * Maximum backoff in milliseconds
+	 */
+	private final long mMaxBackoff;
+	/**
+	 * Elapsed realtime after which the next probe is let through, used while
+	 * open or half-open
+	 */
+	private long mNextProbe = 0;
+	/**
+	 * Maximum time in milliseconds to wait for a probe's result before letting
+	 * another probe through
+	 */
+	private final long mProbeTimeout;
+	/**
+	 * Source of backoff jitter
+	 */
+	private final Random mRandom = new Random();
+	/**
+	 * Current state
+	 */
+	private int mState = CircuitBreaker.STATE_CLOSED;
+	/**
+	 * Number of times the breaker has opened since it was last closed
+	 */
+	private int mTripCount = 0;
+
+	/**
+	 * Creates a new, closed, CircuitBreaker
+	 * 
+	 * @param failureThreshold
+	 *            number of consecutive failures needed to open the breaker
+	 * @param baseBackoff
+	 *            backoff after the breaker first opens, in milliseconds
+	 * @param maxBackoff
+	 *            maximum backoff in milliseconds
+	 * @param probeTimeout
+	 *            maximum time in milliseconds to wait for a probe's result
+	 *            before letting another probe through
+	 */
+	public CircuitBreaker(final int failureThreshold, final long baseBackoff,
+			final long maxBackoff, final long probeTimeout)
+	{
+		mFailureThreshold = failureThreshold;
+		mBaseBackoff = baseBackoff;
+		mMaxBackoff = maxBackoff;
+		mProbeTimeout = probeTimeout;
+	}
+
+	/**
+	 * Whether a request may be made. Every request which is allowed must
+	 * report its result with {@link #onSuccess()} or {@link #onFailure()}.
+	 * 
+	 * @return false if the request should fail fast
+	 */
+	public synchronized boolean allowRequest()
+	{
+		if (mState == CircuitBreaker.STATE_CLOSED)
+			return true;
+		final long now = SystemClock.elapsedRealtime();
+		if (now < mNextProbe)
+			return false;
+		mState = CircuitBreaker.STATE_HALF_OPEN;
+		mNextProbe = now + mProbeTimeout;
+		return true;
+	}
+
+	/**
+	 * Whether requests are currently failing fast
+	 * 
+	 * @return true if the breaker is open or waiting on a probe
+	 */
+	public synchronized boolean isOpen()
+	{
+		return mState != CircuitBreaker.STATE_CLOSED;
+	}
+
+	/**
+	 * Reports a failed request, opening the breaker if the failure threshold
+	 * is reached or the request was a probe
+	 */
+	public synchronized void onFailure()
+	{
+		if (mState == CircuitBreaker.STATE_OPEN)
+			return;
+		if (mState == CircuitBreaker.STATE_CLOSED
+				&& ++mConsecutiveFailures < mFailureThreshold)
+			return;
+		// Full backoff doubles with each consecutive trip, with up to half of
+		// it randomized so that clients do not retry in lockstep
+		final long backoff = Math.min(mMaxBackoff,
+				mBaseBackoff << Math.min(mTripCount, 16));
+		final long jitter = (long) (mRandom.nextDouble() * (backoff / 2));
+		mNextProbe = SystemClock.elapsedRealtime() + backoff - jitter;
+		mState = CircuitBreaker.STATE_OPEN;
+		mTripCount++;
+		mConsecutiveFailures = 0;
+	}
+
+	/**
+	 * Reports a successful request, closing the breaker
+	 */
+	public synchronized void onSuccess()
+	{
+		mState = CircuitBreaker.STATE_CLOSED;
+		mConsecutiveFailures = 0;
+		mTripCount = 0;
+	}
+
+	/**
+	 * Closes the breaker and forgets any past failures, such as when the
+	 * guarded service is replaced
+	 */
+	public synchronized void reset()
+	{
+		onSuccess();
+	}
+}
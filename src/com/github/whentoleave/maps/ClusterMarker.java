@@ -0,0 +1,123 @@
+package com.github.whentoleave.maps;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Marker for a cluster of {@link com.google.android.maps.OverlayItem}s: the
+ * marker of one of the clustered items with a badge showing the number of
+ * items in the cluster.
+ */
+public class ClusterMarker extends Drawable
+{
+	/**
+	 * Paint used to fill the badge
+	 */
+	private static final Paint BADGE_PAINT = new Paint(Paint.ANTI_ALIAS_FLAG);
+	/**
+	 * Radius of the badge in pixels
+	 */
+	private static final int BADGE_RADIUS = 11;
+	/**
+	 * Paint used to draw the count
+	 */
+	private static final Paint TEXT_PAINT = new Paint(Paint.ANTI_ALIAS_FLAG);
+	static
+	{
+		ClusterMarker.BADGE_PAINT.setColor(0xff48b4fe); // @color/blue
+		ClusterMarker.TEXT_PAINT.setColor(0xffffffff);
+		ClusterMarker.TEXT_PAINT.setTextSize(14);
+		ClusterMarker.TEXT_PAINT.setFakeBoldText(true);
+		ClusterMarker.TEXT_PAINT.setTextAlign(Paint.Align.CENTER);
+	}
+
+	/**
+	 * Marker the badge is drawn over
+	 */
+	private final Drawable mBase;
+	/**
+	 * Text of the badge
+	 */
+	private final String mCount;
+
+	/**
+	 * Creates a marker for a cluster, taking its bounds from the base marker
+	 * extended to include the badge, so that the whole marker is hit tested
+	 * and kept on screen
+	 * 
+	 * @param base
+	 *            marker of one of the clustered items
+	 * @param count
+	 *            number of items in the cluster
+	 */
+	public ClusterMarker(final Drawable base, final int count)
+	{
+		mBase = base;
+		mCount = count > 99 ? "99+" : Integer.toString(count);
+		final Rect baseBounds = base.getBounds();
+		setBounds(baseBounds.left, baseBounds.top - ClusterMarker.BADGE_RADIUS,
+				baseBounds.right + ClusterMarker.BADGE_RADIUS,
+				baseBounds.bottom);
+	}
+
+	/**
+	 * Draws the base marker with the badge centered on its top right corner
+	 */
+	@Override
+	public void draw(final Canvas canvas)
+	{
+		mBase.draw(canvas);
+		final Rect bounds = getBounds();
+		final float centerX = bounds.right - ClusterMarker.BADGE_RADIUS;
+		final float centerY = bounds.top + ClusterMarker.BADGE_RADIUS;
+		canvas.drawCircle(centerX, centerY, ClusterMarker.BADGE_RADIUS,
+				ClusterMarker.BADGE_PAINT);
+		// Center the text vertically on the badge
+		final float baseline = centerY
+				- (ClusterMarker.TEXT_PAINT.descent() + ClusterMarker.TEXT_PAINT
+						.ascent()) / 2;
+		canvas.drawText(mCount, centerX, baseline, ClusterMarker.TEXT_PAINT);
+	}
+
+	/**
+	 * Gets the height of the base marker plus the part of the badge beyond it
+	 */
+	@Override
+	public int getIntrinsicHeight()
+	{
+		final int baseHeight = mBase.getIntrinsicHeight();
+		return baseHeight < 0 ? -1 : baseHeight + ClusterMarker.BADGE_RADIUS;
+	}
+
+	/**
+	 * Gets the width of the base marker plus the part of the badge beyond it
+	 */
+	@Override
+	public int getIntrinsicWidth()
+	{
+		final int baseWidth = mBase.getIntrinsicWidth();
+		return baseWidth < 0 ? -1 : baseWidth + ClusterMarker.BADGE_RADIUS;
+	}
+
+	@Override
+	public int getOpacity()
+	{
+		return PixelFormat.TRANSLUCENT;
+	}
+
+	@Override
+	public void setAlpha(final int alpha)
+	{
+		mBase.setAlpha(alpha);
+	}
+
+	@Override
+	public void setColorFilter(final ColorFilter cf)
+	{
+		mBase.setColorFilter(cf);
+	}
+}
@@ -0,0 +1,135 @@
+package com.github.whentoleave.maps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import android.util.JsonReader;
+
+/**
+ * Streaming parser for Directions service JSON responses. Reads tokens
+ * straight from the response stream, skipping every subtree other than the
+ * first route's leg durations, so memory use does not grow with the size of
+ * the response. The response is still read to its end, so that the
+ * connection is left at the end of the response and can be reused. The
+ * status of responses without a route is checked, so that a failure of the
+ * service itself is reported rather than mistaken for no route.
+ */
+public class DirectionsParser
+{
+	/**
+	 * Reads the total duration of the first route in a Directions response
+	 * 
+	 * @param is
+	 *            stream containing the Directions JSON response
+	 * @return the sum of the first route's leg durations in seconds or -1 if
+	 *         no route was found
+	 * @throws MapsServiceException
+	 *             if the response's status reports that the service failed
+	 * @throws IOException
+	 *             if the stream could not be read or is not valid JSON
+	 */
+	public static int parseDuration(final InputStream is) throws IOException
+	{
+		final JsonReader reader = new JsonReader(new InputStreamReader(is,
+				"UTF-8"));
+		boolean hasRoute = false;
+		int durationSec = -1;
+		String status = null;
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			final String name = reader.nextName();
+			if (name.equals("status"))
+			{
+				status = reader.nextString();
+				continue;
+			}
+			if (!name.equals("routes"))
+			{
+				reader.skipValue();
+				continue;
+			}
+			reader.beginArray();
+			// use the first route, skipping any alternatives after it
+			if (reader.hasNext())
+			{
+				hasRoute = true;
+				durationSec = DirectionsParser.readRouteDuration(reader);
+			}
+			while (reader.hasNext())
+				reader.skipValue();
+			reader.endArray();
+		}
+		reader.endObject();
+		if (!hasRoute)
+			MapsServiceException.checkStatus(status);
+		return durationSec;
+	}
+
+	/**
+	 * Reads the duration of a single leg, leaving the reader after the leg
+	 * 
+	 * @param reader
+	 *            reader positioned at the start of a leg object
+	 * @return the leg duration in seconds
+	 * @throws IOException
+	 *             if the leg could not be read
+	 */
+	private static int readLegDuration(final JsonReader reader)
+			throws IOException
+	{
+		int durationSec = 0;
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			if (!reader.nextName().equals("duration"))
+			{
+				reader.skipValue();
+				continue;
+			}
+			reader.beginObject();
+			while (reader.hasNext())
+				if (reader.nextName().equals("value"))
+					durationSec = reader.nextInt();
+				else
+					reader.skipValue();
+			reader.endObject();
+		}
+		reader.endObject();
+		return durationSec;
+	}
+
+	/**
+	 * Reads the total duration of a route's legs, leaving the reader after the
+	 * route
+	 * 
+	 * @param reader
+	 *            reader positioned at the start of a route object
+	 * @return the sum of the route's leg durations in seconds or -1 if the
+	 *         route has no legs
+	 * @throws IOException
+	 *             if the route could not be read
+	 */
+	private static int readRouteDuration(final JsonReader reader)
+			throws IOException
+	{
+		int durationSec = -1;
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			if (!reader.nextName().equals("legs"))
+			{
+				reader.skipValue();
+				continue;
+			}
+			durationSec = 0;
+			reader.beginArray();
+			while (reader.hasNext())
+				durationSec += DirectionsParser.readLegDuration(reader);
+			reader.endArray();
+		}
+		reader.endObject();
+		return durationSec;
+	}
+}
@@ -0,0 +1,150 @@
+package com.github.whentoleave.maps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+import android.util.JsonReader;
+
+/**
+ * Streaming parser for Distance Matrix service JSON responses with a single
+ * origin. Reads tokens straight from the response stream, keeping only the
+ * duration of each element of the first row. The response is still read to
+ * its end, so that the connection is left at the end of the response and can
+ * be reused. The status of responses without any row is checked, so that a
+ * failure of the service itself is reported rather than mistaken for no
+ * routes.
+ */
+public class DistanceMatrixParser
+{
+	/**
+	 * Reads the durations from the origin to each destination in a Distance
+	 * Matrix response
+	 * 
+	 * @param is
+	 *            stream containing the Distance Matrix JSON response
+	 * @param destinationCount
+	 *            number of destinations in the request
+	 * @return the duration in seconds to each destination, in request order,
+	 *         with -1 for any destination without a route
+	 * @throws MapsServiceException
+	 *             if the response's status reports that the service failed
+	 * @throws IOException
+	 *             if the stream could not be read or is not valid JSON
+	 */
+	public static int[] parseDurations(final InputStream is,
+			final int destinationCount) throws IOException
+	{
+		final int[] durations = new int[destinationCount];
+		Arrays.fill(durations, -1);
+		final JsonReader reader = new JsonReader(new InputStreamReader(is,
+				"UTF-8"));
+		boolean hasRow = false;
+		String status = null;
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			final String name = reader.nextName();
+			if (name.equals("status"))
+			{
+				status = reader.nextString();
+				continue;
+			}
+			if (!name.equals("rows"))
+			{
+				reader.skipValue();
+				continue;
+			}
+			reader.beginArray();
+			// Only one origin, so only the first row is of interest
+			if (reader.hasNext())
+			{
+				hasRow = true;
+				DistanceMatrixParser.readRowDurations(reader, durations);
+			}
+			while (reader.hasNext())
+				reader.skipValue();
+			reader.endArray();
+		}
+		reader.endObject();
+		if (!hasRow)
+			MapsServiceException.checkStatus(status);
+		return durations;
+	}
+
+	/**
+	 * Reads the duration of a single element, leaving the reader after the
+	 * element
+	 * 
+	 * @param reader
+	 *            reader positioned at the start of an element object
+	 * @return the element's duration in seconds or -1 if the element has no
+	 *         route
+	 * @throws IOException
+	 *             if the element could not be read
+	 */
+	private static int readElementDuration(final JsonReader reader)
+			throws IOException
+	{
+		int durationSec = -1;
+		boolean isOk = false;
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			final String name = reader.nextName();
+			if (name.equals("status"))
+				isOk = reader.nextString().equals("OK");
+			else if (name.equals("duration"))
+			{
+				reader.beginObject();
+				while (reader.hasNext())
+					if (reader.nextName().equals("value"))
+						durationSec = reader.nextInt();
+					else
+						reader.skipValue();
+				reader.endObject();
+			}
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		return isOk ? durationSec : -1;
+	}
+
+	/**
+	 * Reads the duration of each element of a row, leaving the reader after
+	 * the row
+	 * 
+	 * @param reader
+	 *            reader positioned at the start of a row object
+	 * @param durations
+	 *            receives the duration in seconds of each element, in order;
+	 *            elements beyond its length are skipped
+	 * @throws IOException
+	 *             if the row could not be read
+	 */
+	private static void readRowDurations(final JsonReader reader,
+			final int[] durations) throws IOException
+	{
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			if (!reader.nextName().equals("elements"))
+			{
+				reader.skipValue();
+				continue;
+			}
+			reader.beginArray();
+			for (int h = 0; reader.hasNext(); h++)
+			{
+				final int duration = DistanceMatrixParser
+						.readElementDuration(reader);
+				if (h < durations.length)
+					durations[h] = duration;
+			}
+			reader.endArray();
+		}
+		reader.endObject();
+	}
+}
@@ -0,0 +1,123 @@
+package com.github.whentoleave.maps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import android.util.JsonReader;
+
+import com.google.android.maps.GeoPoint;
+
+/**
+ * Streaming parser for Geocoding service JSON responses. Reads tokens
+ * straight from the response stream, keeping only the location of the first
+ * result. The response is still read to its end, so that the connection is
+ * left at the end of the response and can be reused. The status of responses
+ * without a result is checked, so that a failure of the service itself is
+ * reported rather than mistaken for an unknown address.
+ */
+public class GeocodeParser
+{
+	/**
+	 * Reads the location of the first result in a Geocoding response
+	 * 
+	 * @param is
+	 *            stream containing the Geocoding JSON response
+	 * @return GeoPoint representing the first result's lat/long or null if
+	 *         no result was found
+	 * @throws MapsServiceException
+	 *             if the response's status reports that the service failed
+	 * @throws IOException
+	 *             if the stream could not be read or is not valid JSON
+	 */
+	public static GeoPoint parseLocation(final InputStream is)
+			throws IOException
+	{
+		final JsonReader reader = new JsonReader(new InputStreamReader(is,
+				"UTF-8"));
+		boolean hasResult = false;
+		GeoPoint location = null;
+		String status = null;
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			final String name = reader.nextName();
+			if (name.equals("status"))
+			{
+				status = reader.nextString();
+				continue;
+			}
+			if (!name.equals("results"))
+			{
+				reader.skipValue();
+				continue;
+			}
+			reader.beginArray();
+			// use the best guess, skipping any other results after it
+			if (reader.hasNext())
+			{
+				hasResult = true;
+				location = GeocodeParser.readResultLocation(reader);
+			}
+			while (reader.hasNext())
+				reader.skipValue();
+			reader.endArray();
+		}
+		reader.endObject();
+		if (!hasResult)
+			MapsServiceException.checkStatus(status);
+		return location;
+	}
+
+	/**
+	 * Reads the location of a result, leaving the reader after the result
+	 * 
+	 * @param reader
+	 *            reader positioned at the start of a result object
+	 * @return GeoPoint representing the result's lat/long or null if the
+	 *         result has no location
+	 * @throws IOException
+	 *             if the result could not be read
+	 */
+	private static GeoPoint readResultLocation(final JsonReader reader)
+			throws IOException
+	{
+		GeoPoint location = null;
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			if (!reader.nextName().equals("geometry"))
+			{
+				reader.skipValue();
+				continue;
+			}
+			reader.beginObject();
+			while (reader.hasNext())
+			{
+				if (!reader.nextName().equals("location"))
+				{
+					reader.skipValue();
+					continue;
+				}
+				double lat = 0;
+				double lng = 0;
+				reader.beginObject();
+				while (reader.hasNext())
+				{
+					final String name = reader.nextName();
+					if (name.equals("lat"))
+						lat = reader.nextDouble();
+					else if (name.equals("lng"))
+						lng = reader.nextDouble();
+					else
+						reader.skipValue();
+				}
+				reader.endObject();
+				location = new GeoPoint((int) (lat * 1E6), (int) (lng * 1E6));
+			}
+			reader.endObject();
+		}
+		reader.endObject();
+		return location;
+	}
+}
@@ -0,0 +1,234 @@
+package com.github.whentoleave.maps;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.google.android.maps.GeoPoint;
+
+/**
+ * Persistent store of geocoded addresses, allowing geocoding results to
+ * survive process death. Addresses are stored in their canonical form (see
+ * {@link TravelTimeCache#normalizeDestination(String)}) along with their
+ * latitude and longitude in microdegrees and the time they were geocoded.
+ * Geocodes older than {@link #MAX_AGE} are treated as missing, so that
+ * addresses are geocoded again and their entries refreshed every so often.
+ * The most recently used addresses are also held in memory, so they can be
+ * looked up on the main thread with {@link #peek(String)}.
+ */
+public class GeocodeStore extends SQLiteOpenHelper
+{
+	/**
+	 * Canonical address column
+	 */
+	private static final String COLUMN_ADDRESS = "address";
+	/**
+	 * Latitude (in microdegrees) column
+	 */
+	private static final String COLUMN_LAT_E6 = "lat_e6";
+	/**
+	 * Longitude (in microdegrees) column
+	 */
+	private static final String COLUMN_LON_E6 = "lon_e6";
+	/**
+	 * Time the address was geocoded column
+	 */
+	private static final String COLUMN_UPDATED = "updated";
+	/**
+	 * Name of the database file
+	 */
+	private static final String DATABASE_NAME = "geocode.db";
+	/**
+	 * Current database schema version
+	 */
+	private static final int DATABASE_VERSION = 1;
+	/**
+	 * Maximum age of a stored geocode in milliseconds
+	 */
+	private static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+	/**
+	 * Maximum number of addresses held in memory
+	 */
+	private static final int MAX_RECENT = 64;
+	/**
+	 * Process wide instance
+	 */
+	private static GeocodeStore instance = null;
+	/**
+	 * Table holding the geocoded addresses
+	 */
+	private static final String TABLE_GEOCODES = "geocodes";
+	/**
+	 * Logging tag
+	 */
+	private static final String TAG = "GeocodeStore";
+
+	/**
+	 * Gets the process wide GeocodeStore, creating it if necessary
+	 * 
+	 * @param context
+	 *            context used to locate the database
+	 * @return the GeocodeStore
+	 */
+	public static synchronized GeocodeStore getInstance(final Context context)
+	{
+		if (GeocodeStore.instance == null)
+			GeocodeStore.instance = new GeocodeStore(
+					context.getApplicationContext());
+		return GeocodeStore.instance;
+	}
+
+	/**
+	 * Most recently used geocodes, keyed by canonical address, in least
+	 * recently accessed order
+	 */
+	private final LinkedHashMap<String, GeoPoint> mRecent = new LinkedHashMap<String, GeoPoint>(
+			GeocodeStore.MAX_RECENT, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				final Map.Entry<String, GeoPoint> eldest)
+		{
+			return size() > GeocodeStore.MAX_RECENT;
+		}
+	};
+
+	/**
+	 * Creates a new GeocodeStore. Use {@link #getInstance(Context)} instead.
+	 * 
+	 * @param context
+	 *            context used to locate the database
+	 */
+	private GeocodeStore(final Context context)
+	{
+		super(context, GeocodeStore.DATABASE_NAME, null,
+				GeocodeStore.DATABASE_VERSION);
+	}
+
+	/**
+	 * Looks up a previously geocoded address
+	 * 
+	 * @param address
+	 *            address to look up
+	 * @return the stored location or null if the address has not been stored
+	 *         or its geocode is older than {@link #MAX_AGE}
+	 */
+	public GeoPoint get(final String address)
+	{
+		final String canonicalAddress = TravelTimeCache
+				.normalizeDestination(address);
+		synchronized (mRecent)
+		{
+			final GeoPoint recentPoint = mRecent.get(canonicalAddress);
+			if (recentPoint != null)
+				return recentPoint;
+		}
+		Cursor cursor = null;
+		try
+		{
+			cursor = getReadableDatabase().query(GeocodeStore.TABLE_GEOCODES,
+					new String[] { GeocodeStore.COLUMN_LAT_E6,
+							GeocodeStore.COLUMN_LON_E6 },
+					GeocodeStore.COLUMN_ADDRESS + "=? AND "
+							+ GeocodeStore.COLUMN_UPDATED + ">?",
+					new String[] {
+							canonicalAddress,
+							Long.toString(System.currentTimeMillis()
+									- GeocodeStore.MAX_AGE) }, null, null,
+					null);
+			if (!cursor.moveToFirst())
+				return null;
+			final GeoPoint point = new GeoPoint(cursor.getInt(0),
+					cursor.getInt(1));
+			synchronized (mRecent)
+			{
+				mRecent.put(canonicalAddress, point);
+			}
+			return point;
+		} catch (final SQLiteException e)
+		{
+			Log.w(GeocodeStore.TAG, "Error reading geocode for " + address, e);
+			return null;
+		} finally
+		{
+			if (cursor != null)
+				cursor.close();
+		}
+	}
+
+	@Override
+	public void onCreate(final SQLiteDatabase db)
+	{
+		db.execSQL("CREATE TABLE " + GeocodeStore.TABLE_GEOCODES + " ("
+				+ GeocodeStore.COLUMN_ADDRESS + " TEXT PRIMARY KEY, "
+				+ GeocodeStore.COLUMN_LAT_E6 + " INTEGER NOT NULL, "
+				+ GeocodeStore.COLUMN_LON_E6 + " INTEGER NOT NULL, "
+				+ GeocodeStore.COLUMN_UPDATED + " INTEGER NOT NULL)");
+	}
+
+	@Override
+	public void onUpgrade(final SQLiteDatabase db, final int oldVersion,
+			final int newVersion)
+	{
+		// Geocodes can always be fetched again, so simply start over
+		db.execSQL("DROP TABLE IF EXISTS " + GeocodeStore.TABLE_GEOCODES);
+		onCreate(db);
+	}
+
+	/**
+	 * Looks up an address among the recently used geocodes held in memory,
+	 * without touching the database. Safe to call on the main thread.
+	 * 
+	 * @param address
+	 *            address to look up
+	 * @return the location or null if the address is not held in memory
+	 */
+	public GeoPoint peek(final String address)
+	{
+		synchronized (mRecent)
+		{
+			return mRecent.get(TravelTimeCache.normalizeDestination(address));
+		}
+	}
+
+	/**
+	 * Stores the geocoded location of an address, replacing any existing entry
+	 * 
+	 * @param address
+	 *            address which was geocoded
+	 * @param point
+	 *            location of the address
+	 */
+	public void put(final String address, final GeoPoint point)
+	{
+		final String canonicalAddress = TravelTimeCache
+				.normalizeDestination(address);
+		synchronized (mRecent)
+		{
+			mRecent.put(canonicalAddress, point);
+		}
+		final ContentValues values = new ContentValues();
+		values.put(GeocodeStore.COLUMN_ADDRESS, canonicalAddress);
+		values.put(GeocodeStore.COLUMN_LAT_E6, point.getLatitudeE6());
+		values.put(GeocodeStore.COLUMN_LON_E6, point.getLongitudeE6());
+		values.put(GeocodeStore.COLUMN_UPDATED, System.currentTimeMillis());
+		try
+		{
+			getWritableDatabase().insertWithOnConflict(
+					GeocodeStore.TABLE_GEOCODES, null, values,
+					SQLiteDatabase.CONFLICT_REPLACE);
+		} catch (final SQLiteException e)
+		{
+			Log.w(GeocodeStore.TAG, "Error storing geocode for " + address, e);
+		}
+	}
+}
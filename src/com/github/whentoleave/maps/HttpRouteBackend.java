@@ -0,0 +1,157 @@
+package com.github.whentoleave.maps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import android.location.Location;
+import android.util.Log;
+
+/**
+ * Production {@link RouteBackend} requesting responses over HTTP through the
+ * shared {@link MapsHttpClient}
+ */
+public class HttpRouteBackend implements RouteBackend
+{
+	/**
+	 * Base URL of the Google Maps web services
+	 */
+	public static final String GOOGLE_API_URL = "http://maps.googleapis.com";
+	/**
+	 * Base URL of Google Maps, used for KML routes
+	 */
+	public static final String GOOGLE_MAPS_URL = "http://maps.google.com";
+	/**
+	 * Logging tag
+	 */
+	private static final String TAG = "HttpRouteBackend";
+
+	/**
+	 * Formats a location as a latitude,longitude pair
+	 * 
+	 * @param location
+	 *            location to format
+	 * @return formatted location
+	 */
+	private static String formatLocation(final Location location)
+	{
+		return location.getLatitude() + "," + location.getLongitude();
+	}
+
+	/**
+	 * Base URL requests to the web services are sent to
+	 */
+	private final String mApiUrl;
+	/**
+	 * Base URL KML route requests are sent to
+	 */
+	private final String mMapsUrl;
+
+	/**
+	 * Creates a new HttpRouteBackend using the Google services
+	 */
+	public HttpRouteBackend()
+	{
+		this(HttpRouteBackend.GOOGLE_API_URL, HttpRouteBackend.GOOGLE_MAPS_URL);
+	}
+
+	/**
+	 * Creates a new HttpRouteBackend sending every request to the given
+	 * server, such as the test project's StubRouteServer
+	 * 
+	 * @param baseUrl
+	 *            base URL of the server, e.g. http://10.0.2.2:8080
+	 */
+	public HttpRouteBackend(final String baseUrl)
+	{
+		this(baseUrl, baseUrl);
+	}
+
+	/**
+	 * Creates a new HttpRouteBackend
+	 * 
+	 * @param apiUrl
+	 *            base URL requests to the web services are sent to
+	 * @param mapsUrl
+	 *            base URL KML route requests are sent to
+	 */
+	public HttpRouteBackend(final String apiUrl, final String mapsUrl)
+	{
+		mApiUrl = apiUrl;
+		mMapsUrl = mapsUrl;
+	}
+
+	@Override
+	public InputStream openDirections(final Location origin,
+			final String destination, final String travelType)
+			throws IOException
+	{
+		final StringBuffer urlString = new StringBuffer(mApiUrl);
+		urlString.append("/maps/api/directions/json");
+		urlString.append("?origin=");// from
+		urlString.append(RouteInformation.formatAddress(HttpRouteBackend
+				.formatLocation(origin)));
+		urlString.append("&destination=");// to
+		urlString.append(RouteInformation.formatAddress(destination));
+		urlString.append("&sensor=true&mode=");
+		urlString.append(travelType);
+		final String url = urlString.toString();
+		Log.v(HttpRouteBackend.TAG, "openDirections URL: " + url);
+		return MapsHttpClient.open(url);
+	}
+
+	@Override
+	public InputStream openDistanceMatrix(final Location origin,
+			final List<String> destinations, final String travelType)
+			throws IOException
+	{
+		final StringBuffer urlString = new StringBuffer(mApiUrl);
+		urlString.append("/maps/api/distancematrix/json");
+		urlString.append("?origins=");// from
+		urlString.append(RouteInformation.formatAddress(HttpRouteBackend
+				.formatLocation(origin)));
+		urlString.append("&destinations=");// to
+		for (int h = 0; h < destinations.size(); h++)
+		{
+			if (h > 0)
+				urlString.append("%7C");
+			urlString.append(RouteInformation.formatAddress(destinations.get(h)));
+		}
+		urlString.append("&sensor=true&mode=");
+		urlString.append(travelType);
+		final String url = urlString.toString();
+		Log.v(HttpRouteBackend.TAG, "openDistanceMatrix URL: " + url);
+		return MapsHttpClient.open(url);
+	}
+
+	@Override
+	public InputStream openGeocode(final String address) throws IOException
+	{
+		final StringBuffer urlString = new StringBuffer(mApiUrl);
+		urlString.append("/maps/api/geocode/json");
+		urlString.append("?address=");
+		urlString.append(RouteInformation.formatAddress(address));
+		urlString.append("&sensor=false");
+		final String url = urlString.toString();
+		Log.v(HttpRouteBackend.TAG, "openGeocode URL: " + url);
+		return MapsHttpClient.open(url);
+	}
+
+	@Override
+	public InputStream openRoute(final Location origin, final String destination)
+			throws IOException
+	{
+		final StringBuffer urlString = new StringBuffer(mMapsUrl);
+		urlString.append("/maps?f=d&hl=en");
+		urlString.append("&saddr=");// from
+		urlString.append(Double.toString(origin.getLatitude()));
+		urlString.append(",");
+		urlString.append(Double.toString(origin.getLongitude()));
+		urlString.append("&daddr=");// to
+		urlString.append(RouteInformation.formatAddress(destination));
+		urlString.append("&ie=UTF8&0&om=0&output=kml");
+		final String url = urlString.toString();
+		Log.v(HttpRouteBackend.TAG, "openRoute URL: " + url);
+		return MapsHttpClient.open(url);
+	}
+}
@@ -1,18 +1,30 @@
 package com.github.whentoleave.maps;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Canvas;
+import android.graphics.Point;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 
 import com.github.whentoleave.ui.EventDetailsFragment;
+import com.google.android.maps.GeoPoint;
 import com.google.android.maps.MapView;
 import com.google.android.maps.OverlayItem;
+import com.google.android.maps.Projection;
 
 /**
- * Manages a set of {@link OverlayItem}s, which can be added to a map. <br />
+ * Manages a set of {@link OverlayItem}s, which can be added to a map. Items
+ * close together at the current zoom level are clustered: the items falling in
+ * the same cell of a zoom dependent grid are shown as a single
+ * {@link ClusterMarker} with their count, so that the number of markers drawn
+ * and hit-tested is bounded by the number of cells rather than the number of
+ * items. The displayed markers are kept in a {@link PointQuadtree}, which
+ * answers both which markers to draw in the viewport and which marker was
+ * tapped without scanning every marker. <br />
  * <br />
  * Note: This class was based on the tutorial found at: <a href=
  * "http://developer.android.com/guide/tutorials/views/hello-mapview.html"</a>
@@ -20,18 +32,105 @@ import com.google.android.maps.OverlayItem;
 public class ItemizedOverlay extends
 		com.google.android.maps.ItemizedOverlay<OverlayItem>
 {
+	/**
+	 * Clustering grid cells are 2^CLUSTER_CELL_BITS pixels wide
+	 */
+	private static final int CLUSTER_CELL_BITS = 6;
+
+	/**
+	 * Gets the scale between pixels at the given zoom level and the pixel
+	 * coordinates of the quadtrees, at the most detailed zoom level
+	 * 
+	 * @param zoomLevel
+	 *            map zoom level
+	 * @return number of bits to shift pixels at the zoom level left by
+	 */
+	private static int getScaleShift(final int zoomLevel)
+	{
+		// The world is 2^(8 + zoom level) pixels wide
+		return Math.max(0, PointQuadtree.COORDINATE_BITS - 8 - zoomLevel);
+	}
+
+	/**
+	 * Whether mClusterTask has been posted and not run yet
+	 */
+	private boolean mClusterPending = false;
+	/**
+	 * Task clustering the items again for the map's current zoom level,
+	 * posted from draw() as the overlay must not be populated while drawing
+	 */
+	private final Runnable mClusterTask = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			mClusterPending = false;
+			final int zoomLevel = mMapView.getZoomLevel();
+			if (zoomLevel == mZoomLevel)
+				return;
+			mZoomLevel = zoomLevel;
+			cluster();
+			mMapView.invalidate();
+		}
+	};
 	/**
 	 * Context to launch activities
 	 */
 	private final Context mContext;
 	/**
-	 * Event URLs corresponding with each OverlayItem
+	 * Marker used for items without a marker of their own
+	 */
+	private final Drawable mDefaultMarker;
+	/**
+	 * Index of the item each displayed OverlayItem represents, or -1 for
+	 * clusters
+	 */
+	private int[] mDisplayedItems = new int[0];
+	/**
+	 * Quadtree of the displayed OverlayItems
+	 */
+	private PointQuadtree mDisplayedQuadtree = new PointQuadtree(new int[0],
+			new int[0], 0);
+	/**
+	 * Event IDs corresponding with each item, of which only the first
+	 * mItems.size() are used
+	 */
+	private long[] mEventIds = new long[0];
+	/**
+	 * All of the items, whether displayed individually or clustered
 	 */
-	private final ArrayList<Long> mEventIds = new ArrayList<Long>();
+	private final ArrayList<OverlayItem> mItems = new ArrayList<OverlayItem>();
 	/**
-	 * Holds each of the OverlayItems objects that we want on our map
+	 * Map view this overlay was last drawn on
+	 */
+	private MapView mMapView = null;
+	/**
+	 * Largest distance in pixels from its point at which a displayed marker
+	 * extends
+	 */
+	private int mMarkerExtent = 0;
+	/**
+	 * Holds each of the OverlayItems objects currently displayed on our map:
+	 * items and clusters of items
 	 */
 	private final ArrayList<OverlayItem> mOverlays = new ArrayList<OverlayItem>();
+	/**
+	 * Quadtree of the items, or null if it needs to be rebuilt
+	 */
+	private PointQuadtree mQuadtree = null;
+	/**
+	 * Sorted positions in mDisplayedQuadtree found by the last query
+	 */
+	private int[] mQueryResults = new int[0];
+	/**
+	 * Scratch point receiving projected pixel positions
+	 */
+	private final Point mScratchPoint = new Point();
+	/**
+	 * Zoom level the items are clustered for, or -1 if they have not been
+	 * clustered for a zoom level yet
+	 */
+	private int mZoomLevel = -1;
 
 	/**
 	 * Defines the default marker to be used on each of the {@link OverlayItem}.
@@ -46,6 +145,7 @@ public class ItemizedOverlay extends
 	public ItemizedOverlay(final Drawable defaultMarker, final Context context)
 	{
 		super(boundCenterBottom(defaultMarker));
+		mDefaultMarker = defaultMarker;
 		mContext = context;
 		populate();
 	}
@@ -57,21 +157,127 @@ public class ItemizedOverlay extends
 	 *            Overlay item to be added
 	 * @param eventId
 	 *            A unique ID specific to this event
+	 * @deprecated Populates the overlay again on every call. Use
+	 *             {@link #setItems(List, long[])} to add all items at once.
 	 */
+	@Deprecated
 	public void addOverlay(final OverlayItem overlay, final long eventId)
 	{
-		mOverlays.add(overlay);
-		mEventIds.add(eventId);
-		populate();
+		final int size = mItems.size();
+		if (size == mEventIds.length)
+		{
+			final long[] eventIds = new long[Math.max(4, size * 2)];
+			System.arraycopy(mEventIds, 0, eventIds, 0, size);
+			mEventIds = eventIds;
+		}
+		mItems.add(overlay);
+		mEventIds[size] = eventId;
+		mQuadtree = null;
+		cluster();
 	}
 
 	/**
 	 * Clears this ItemizedOverlay
 	 */
 	public void clearOverlay()
+	{
+		mItems.clear();
+		mQuadtree = null;
+		cluster();
+	}
+
+	/**
+	 * Rebuilds the displayed OverlayItems for the current zoom level: items
+	 * alone in their grid cell are displayed as they are, the others as a
+	 * cluster at their mean position. The overlay is then populated once.
+	 */
+	private void cluster()
 	{
 		mOverlays.clear();
-		mEventIds.clear();
+		final int itemCount = mItems.size();
+		if (mZoomLevel < 0 || itemCount < 2)
+		{
+			// Not yet drawn, so the zoom level is unknown, or nothing to
+			// cluster
+			mOverlays.addAll(mItems);
+			mDisplayedItems = new int[itemCount];
+			for (int h = 0; h < itemCount; h++)
+				mDisplayedItems[h] = h;
+		}
+		else
+		{
+			if (mQuadtree == null)
+			{
+				final int[] latE6 = new int[itemCount];
+				final int[] lonE6 = new int[itemCount];
+				for (int h = 0; h < itemCount; h++)
+				{
+					final GeoPoint point = mItems.get(h).getPoint();
+					latE6[h] = point.getLatitudeE6();
+					lonE6[h] = point.getLongitudeE6();
+				}
+				mQuadtree = new PointQuadtree(latE6, lonE6, itemCount);
+			}
+			// The world is 2^(8 + zoom level) pixels wide
+			final int[] cells = mQuadtree.getCells(mZoomLevel + 8
+					- ItemizedOverlay.CLUSTER_CELL_BITS);
+			final int cellCount = cells.length - 1;
+			mDisplayedItems = new int[cellCount];
+			for (int cell = 0; cell < cellCount; cell++)
+			{
+				final int start = cells[cell];
+				final int end = cells[cell + 1];
+				if (end - start == 1)
+				{
+					final int item = mQuadtree.getPoint(start);
+					mOverlays.add(mItems.get(item));
+					mDisplayedItems[cell] = item;
+					continue;
+				}
+				// Represent the cluster by its first item, which for events
+				// is the earliest one
+				int firstItem = Integer.MAX_VALUE;
+				long latE6Sum = 0;
+				long lonE6Sum = 0;
+				for (int position = start; position < end; position++)
+				{
+					final int item = mQuadtree.getPoint(position);
+					final GeoPoint point = mItems.get(item).getPoint();
+					latE6Sum += point.getLatitudeE6();
+					lonE6Sum += point.getLongitudeE6();
+					firstItem = Math.min(firstItem, item);
+				}
+				final int count = end - start;
+				final OverlayItem first = mItems.get(firstItem);
+				final OverlayItem clusterItem = new OverlayItem(new GeoPoint(
+						(int) (latE6Sum / count), (int) (lonE6Sum / count)),
+						first.getTitle(), first.getSnippet());
+				final Drawable firstMarker = first.getMarker(0);
+				clusterItem.setMarker(new ClusterMarker(
+						firstMarker == null ? mDefaultMarker : firstMarker,
+						count));
+				mOverlays.add(clusterItem);
+				mDisplayedItems[cell] = -1;
+			}
+		}
+		final int displayedCount = mOverlays.size();
+		final int[] latE6 = new int[displayedCount];
+		final int[] lonE6 = new int[displayedCount];
+		mMarkerExtent = 0;
+		for (int h = 0; h < displayedCount; h++)
+		{
+			final OverlayItem overlay = mOverlays.get(h);
+			latE6[h] = overlay.getPoint().getLatitudeE6();
+			lonE6[h] = overlay.getPoint().getLongitudeE6();
+			final Rect bounds = getMarker(overlay).getBounds();
+			mMarkerExtent = Math.max(mMarkerExtent, Math.max(
+					Math.max(-bounds.left, bounds.right),
+					Math.max(-bounds.top, bounds.bottom)));
+		}
+		mDisplayedQuadtree = new PointQuadtree(latE6, lonE6, displayedCount);
+		mQueryResults = new int[displayedCount];
+		// The last focused index would otherwise point past the new items
+		setLastFocusedIndex(-1);
 		populate();
 	}
 
@@ -84,29 +290,167 @@ public class ItemizedOverlay extends
 		return mOverlays.get(i);
 	}
 
+	/**
+	 * Draws the displayed items within the viewport. If the zoom level
+	 * changed, the items are clustered again after this frame and the map
+	 * redrawn.
+	 */
 	@Override
 	public void draw(final Canvas pCanvas, final MapView pMapView,
 			final boolean pShadow)
 	{
-		super.draw(pCanvas, pMapView, false);
+		mMapView = pMapView;
+		final int zoomLevel = pMapView.getZoomLevel();
+		if (zoomLevel != mZoomLevel && !mClusterPending)
+		{
+			mClusterPending = true;
+			pMapView.post(mClusterTask);
+		}
+		// Markers are drawn without shadows
+		if (pShadow || mOverlays.isEmpty())
+			return;
+		final GeoPoint center = pMapView.getMapCenter();
+		final int centerX = PointQuadtree.toPixelX(center.getLongitudeE6());
+		final int centerY = PointQuadtree.toPixelY(center.getLatitudeE6());
+		final int scaleShift = ItemizedOverlay.getScaleShift(zoomLevel);
+		final long halfWidth = (long) (pMapView.getWidth() / 2
+				+ mMarkerExtent) << scaleShift;
+		final long halfHeight = (long) (pMapView.getHeight() / 2
+				+ mMarkerExtent) << scaleShift;
+		final int found = mDisplayedQuadtree.query(
+				(int) Math.max(0, centerX - halfWidth),
+				(int) Math.max(0, centerY - halfHeight),
+				(int) Math.min(Integer.MAX_VALUE, centerX + halfWidth),
+				(int) Math.min(Integer.MAX_VALUE, centerY + halfHeight),
+				mQueryResults);
+		final Projection projection = pMapView.getProjection();
+		for (int h = 0; h < found; h++)
+		{
+			final OverlayItem overlay = mOverlays.get(mDisplayedQuadtree
+					.getPoint(mQueryResults[h]));
+			projection.toPixels(overlay.getPoint(), mScratchPoint);
+			drawAt(pCanvas, getMarker(overlay), mScratchPoint.x,
+					mScratchPoint.y, false);
+		}
+	}
+
+	/**
+	 * Finds the tapped marker using the quadtree of displayed items rather
+	 * than hit-testing every marker, preferring the marker whose point is
+	 * nearest the tap when markers overlap
+	 * 
+	 * @param p
+	 *            tapped location
+	 * @param zoomLevel
+	 *            zoom level of the map
+	 * @return index of the tapped displayed item, or -1 if no marker was
+	 *         tapped
+	 */
+	int findTapped(final GeoPoint p, final int zoomLevel)
+	{
+		final int scaleShift = ItemizedOverlay.getScaleShift(zoomLevel);
+		final int tapX = PointQuadtree.toPixelX(p.getLongitudeE6());
+		final int tapY = PointQuadtree.toPixelY(p.getLatitudeE6());
+		final int extent = mMarkerExtent << scaleShift;
+		final int found = mDisplayedQuadtree.query(tapX - extent, tapY
+				- extent, tapX + extent, tapY + extent, mQueryResults);
+		int tapped = -1;
+		long tappedDistance = Long.MAX_VALUE;
+		for (int h = 0; h < found; h++)
+		{
+			final int position = mQueryResults[h];
+			final int index = mDisplayedQuadtree.getPoint(position);
+			// Tap position relative to the marker's point, in screen pixels
+			final int dx = tapX - mDisplayedQuadtree.getX(position)
+					>> scaleShift;
+			final int dy = tapY - mDisplayedQuadtree.getY(position)
+					>> scaleShift;
+			if (!getMarker(mOverlays.get(index)).getBounds().contains(dx, dy))
+				continue;
+			final long distance = (long) dx * dx + (long) dy * dy;
+			if (distance < tappedDistance)
+			{
+				tapped = index;
+				tappedDistance = distance;
+			}
+		}
+		return tapped;
+	}
+
+	/**
+	 * Gets the marker drawn for a displayed OverlayItem
+	 * 
+	 * @param overlay
+	 *            displayed OverlayItem
+	 * @return the item's own marker, or the default marker if it has none
+	 */
+	private Drawable getMarker(final OverlayItem overlay)
+	{
+		final Drawable marker = overlay.getMarker(0);
+		return marker == null ? mDefaultMarker : marker;
+	}
+
+	/**
+	 * Whether exactly the given items and event IDs are already shown
+	 * 
+	 * @param overlays
+	 *            Overlay items to compare, by identity
+	 * @param eventIds
+	 *            event IDs of the overlay items
+	 * @return true if the items and their event IDs are unchanged
+	 */
+	private boolean isShowing(final List<OverlayItem> overlays,
+			final long[] eventIds)
+	{
+		if (overlays.size() != mItems.size())
+			return false;
+		for (int h = 0; h < eventIds.length; h++)
+			if (overlays.get(h) != mItems.get(h) || eventIds[h] != mEventIds[h])
+				return false;
+		return true;
 	}
 
 	/**
-	 * Launches the EventDetails activity for the tapped event
+	 * Launches the EventDetails activity for the tapped event, or zooms in on
+	 * the tapped cluster
 	 */
 	@Override
 	protected boolean onTap(final int index)
 	{
+		final int item = mDisplayedItems[index];
+		if (item == -1)
+		{
+			if (mMapView != null)
+			{
+				mMapView.getController().animateTo(
+						mOverlays.get(index).getPoint());
+				mMapView.getController().zoomIn();
+			}
+			return true;
+		}
 		final Intent detailsIntent = new Intent(mContext,
 				EventDetailsFragment.class);
-		if (mEventIds.get(index) != -1)
+		if (mEventIds[item] != -1)
 		{
-			detailsIntent.putExtra("eventId", mEventIds.get(index));
+			detailsIntent.putExtra("eventId", mEventIds[item]);
 			mContext.startActivity(detailsIntent);
 		}
 		return true;
 	}
 
+	/**
+	 * Launches the EventDetails activity for, or zooms in on, the marker
+	 * found by {@link #findTapped(GeoPoint, int)}
+	 */
+	@Override
+	public boolean onTap(final GeoPoint p, final MapView mapView)
+	{
+		if (mOverlays.isEmpty())
+			return false;
+		final int tapped = findTapped(p, mapView.getZoomLevel());
+		return tapped != -1 && onTap(tapped);
+	}
+
 	/**
 	 * Sets the Drawable marker for an {@link OverlayItem} i.
 	 * 
@@ -117,8 +461,35 @@ public class ItemizedOverlay extends
 	 */
 	public void setMarker(final int i, final Drawable marker)
 	{
-		mOverlays.get(i).setMarker(marker);
-		populate();
+		mItems.get(i).setMarker(marker);
+		cluster();
+	}
+
+	/**
+	 * Replaces all of the {@link OverlayItem}s at once, populating the overlay
+	 * only once rather than once per item as {@link #addOverlay} does. Nothing
+	 * is done if the same items and event IDs are already shown, so callers
+	 * can keep their OverlayItem instances stable across updates.
+	 * 
+	 * @param overlays
+	 *            Overlay items to show
+	 * @param eventIds
+	 *            A unique ID specific to the event of each overlay item, or -1
+	 *            if it has no event
+	 */
+	public void setItems(final List<OverlayItem> overlays,
+			final long[] eventIds)
+	{
+		if (overlays.size() != eventIds.length)
+			throw new IllegalArgumentException("Expected " + overlays.size()
+					+ " event IDs, got " + eventIds.length);
+		if (isShowing(overlays, eventIds))
+			return;
+		mItems.clear();
+		mItems.addAll(overlays);
+		mEventIds = eventIds.clone();
+		mQuadtree = null;
+		cluster();
 	}
 
 	/**
@@ -3,25 +3,103 @@ package com.github.whentoleave.maps;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Point;
+import android.graphics.Rect;
 
+import com.google.android.maps.GeoPoint;
 import com.google.android.maps.MapView;
 import com.google.android.maps.Overlay;
+import com.google.android.maps.Projection;
 
 /**
- * Overlay representing a route to a destination
+ * Overlay representing a route to a destination. The route is split into
+ * chunks of consecutive segments, each with a bounding box, so that only the
+ * chunks intersecting the viewport are projected and drawn. Segments are
+ * projected into a reusable array relative to the route's first point, once
+ * per zoom level; panning merely translates the canvas, so drawing a frame
+ * allocates nothing.
  */
 public class MapRouteOverlay extends Overlay
 {
 	/**
-	 * The route to draw
+	 * Number of segments grouped in one bounding box chunk
 	 */
-	private Route mRoute = null;
+	private static final int CHUNK_SEGMENTS = 32;
+
+	/**
+	 * Bottom right corner of the bounding box of each chunk
+	 */
+	private GeoPoint[] mChunkBottomRight = null;
+	/**
+	 * Pixel bounding box (left, top, right, bottom) of each chunk at the
+	 * current zoom level, relative to the pixel position of the route's first
+	 * point
+	 */
+	private int[] mChunkBounds = null;
+	/**
+	 * Number of chunks at the current zoom band
+	 */
+	private int mChunkCount = 0;
+	/**
+	 * Projection generation at which the segments of each chunk were last
+	 * projected into mLines
+	 */
+	private int[] mChunkGeneration = null;
+	/**
+	 * Top left corner of the bounding box of each chunk
+	 */
+	private GeoPoint[] mChunkTopLeft = null;
+	/**
+	 * Scratch rectangle receiving the canvas clip bounds
+	 */
+	private final Rect mClipBounds = new Rect();
+	/**
+	 * Projection generation, incremented on every zoom level change so that
+	 * chunks are lazily projected again
+	 */
+	private int mGeneration = 0;
+	/**
+	 * Indexes of the route points mLevelPoints was built from
+	 */
+	private int[] mLevelIndexes = null;
+	/**
+	 * Points of the route at the current zoom band, matching mLevelIndexes
+	 */
+	private GeoPoint[] mLevelPoints = null;
+	/**
+	 * Line segments (x1, y1, x2, y2) of the projected route, relative to the
+	 * pixel position of the route's first point
+	 */
+	private float[] mLines = new float[0];
+	/**
+	 * Paint used to draw the route
+	 */
+	private final Paint mPaint = new Paint();
+	/**
+	 * Zoom level the chunk bounds were projected at, or -1 if they need to be
+	 * rebuilt
+	 */
+	private int mProjectedZoom = -1;
+	/**
+	 * First point of the route, which the projected segments are relative to
+	 */
+	private GeoPoint mReferencePoint = null;
+	/**
+	 * The route to draw, simplified per zoom level
+	 */
+	private RouteLevels mRouteLevels = null;
+	/**
+	 * Scratch point receiving projected pixel positions
+	 */
+	private final Point mScratchPoint = new Point();
 
 	/**
 	 * Base constructor for a null route
 	 */
 	public MapRouteOverlay()
 	{
+		mPaint.setColor(0xff48b4fe); // @color/blue with extra 0xff for alpha
+		mPaint.setStyle(Paint.Style.STROKE);
+		mPaint.setStrokeWidth(4);
 	}
 
 	/**
@@ -32,7 +110,8 @@ public class MapRouteOverlay extends Overlay
 	 */
 	public MapRouteOverlay(final Route route)
 	{
-		mRoute = route;
+		this();
+		setRoute(route);
 	}
 
 	/**
@@ -43,26 +122,115 @@ public class MapRouteOverlay extends Overlay
 			final boolean shadow, final long when)
 	{
 		super.draw(canvas, mv, shadow);
-		if (mRoute != null && !mRoute.mRoute.isEmpty())
+		// The route has no shadow
+		if (shadow || mRouteLevels == null)
+			return false;
+		final Projection projection = mv.getProjection();
+		final int zoomLevel = mv.getZoomLevel();
+		if (zoomLevel != mProjectedZoom)
+			setZoomLevel(projection, zoomLevel);
+		if (mChunkCount == 0)
+			return false;
+		// At a fixed zoom level panning only translates the projection
+		projection.toPixels(mReferencePoint, mScratchPoint);
+		final int originX = mScratchPoint.x;
+		final int originY = mScratchPoint.y;
+		// Viewport relative to the reference point, widened by the stroke
+		canvas.getClipBounds(mClipBounds);
+		final int margin = (int) Math.ceil(mPaint.getStrokeWidth());
+		final int left = mClipBounds.left - originX - margin;
+		final int top = mClipBounds.top - originY - margin;
+		final int right = mClipBounds.right - originX + margin;
+		final int bottom = mClipBounds.bottom - originY + margin;
+		canvas.save();
+		canvas.translate(originX, originY);
+		// Consecutive visible chunks are contiguous in mLines, so each run of
+		// them is drawn in a single call
+		int runStart = -1;
+		for (int chunk = 0; chunk < mChunkCount; chunk++)
 		{
-			int x1 = -1, y1 = -1, x2 = -1, y2 = -1;
-			final Paint paint = new Paint();
-			paint.setColor(0xff48b4fe); // @color/blue with extra 0xff for alpha
-			paint.setStyle(Paint.Style.STROKE);
-			paint.setStrokeWidth(4);
-			for (int i = 0; i < mRoute.mRoute.size(); i++)
+			final int bounds = chunk * 4;
+			final boolean visible = mChunkBounds[bounds] <= right
+					&& mChunkBounds[bounds + 1] <= bottom
+					&& mChunkBounds[bounds + 2] >= left
+					&& mChunkBounds[bounds + 3] >= top;
+			if (visible)
+			{
+				if (mChunkGeneration[chunk] != mGeneration)
+					projectChunk(projection, chunk, originX, originY);
+				if (runStart < 0)
+					runStart = chunk;
+			}
+			else if (runStart >= 0)
 			{
-				final Point point = new Point();
-				mv.getProjection().toPixels(mRoute.mRoute.get(i), point);
-				x2 = point.x;
-				y2 = point.y;
-				if (i > 0)
-					canvas.drawLine(x1, y1, x2, y2, paint);
-				x1 = x2;
-				y1 = y2;
+				drawChunks(canvas, runStart, chunk);
+				runStart = -1;
 			}
 		}
-		return true;
+		if (runStart >= 0)
+			drawChunks(canvas, runStart, mChunkCount);
+		canvas.restore();
+		return false;
+	}
+
+	/**
+	 * Draws a run of consecutive, already projected, chunks
+	 * 
+	 * @param canvas
+	 *            canvas to draw on, translated to the reference point
+	 * @param firstChunk
+	 *            first chunk to draw
+	 * @param endChunk
+	 *            chunk after the last chunk to draw
+	 */
+	private void drawChunks(final Canvas canvas, final int firstChunk,
+			final int endChunk)
+	{
+		final int firstSegment = firstChunk * MapRouteOverlay.CHUNK_SEGMENTS;
+		final int endSegment = Math.min(endChunk
+				* MapRouteOverlay.CHUNK_SEGMENTS, mLevelPoints.length - 1);
+		canvas.drawLines(mLines, firstSegment * 4,
+				(endSegment - firstSegment) * 4, mPaint);
+	}
+
+	/**
+	 * Projects the segments of a chunk into mLines, relative to the pixel
+	 * position of the reference point
+	 * 
+	 * @param projection
+	 *            current map projection
+	 * @param chunk
+	 *            chunk to project
+	 * @param originX
+	 *            current x pixel position of the reference point
+	 * @param originY
+	 *            current y pixel position of the reference point
+	 */
+	private void projectChunk(final Projection projection, final int chunk,
+			final int originX, final int originY)
+	{
+		final int firstPoint = chunk * MapRouteOverlay.CHUNK_SEGMENTS;
+		final int lastPoint = Math.min(firstPoint
+				+ MapRouteOverlay.CHUNK_SEGMENTS, mLevelPoints.length - 1);
+		float previousX = 0;
+		float previousY = 0;
+		int lineIndex = firstPoint * 4;
+		for (int h = firstPoint; h <= lastPoint; h++)
+		{
+			projection.toPixels(mLevelPoints[h], mScratchPoint);
+			final float x = mScratchPoint.x - originX;
+			final float y = mScratchPoint.y - originY;
+			if (h > firstPoint)
+			{
+				mLines[lineIndex++] = previousX;
+				mLines[lineIndex++] = previousY;
+				mLines[lineIndex++] = x;
+				mLines[lineIndex++] = y;
+			}
+			previousX = x;
+			previousY = y;
+		}
+		mChunkGeneration[chunk] = mGeneration;
 	}
 
 	/**
@@ -73,6 +241,94 @@ public class MapRouteOverlay extends Overlay
 	 */
 	public void setRoute(final Route route)
 	{
-		mRoute = route;
+		if (route == null || route.getPointCount() == 0)
+		{
+			mRouteLevels = null;
+			mReferencePoint = null;
+		}
+		else
+		{
+			mRouteLevels = new RouteLevels(route);
+			mReferencePoint = route.getPoint(0);
+		}
+		mLevelIndexes = null;
+		mLevelPoints = null;
+		mChunkCount = 0;
+		mProjectedZoom = -1;
+	}
+
+	/**
+	 * Prepares the chunks of the route for the given zoom level: rebuilds them
+	 * if the zoom band changed, then projects their bounding boxes relative to
+	 * the pixel position of the reference point. The segments themselves are
+	 * only projected once their chunk becomes visible.
+	 * 
+	 * @param projection
+	 *            current map projection
+	 * @param zoomLevel
+	 *            current map zoom level
+	 */
+	private void setZoomLevel(final Projection projection, final int zoomLevel)
+	{
+		mProjectedZoom = zoomLevel;
+		mGeneration++;
+		final int[] indexes = mRouteLevels.getIndexes(zoomLevel);
+		// Levels are cached per zoom band, so points and chunks only need to
+		// be built when moving to another band
+		if (indexes != mLevelIndexes)
+		{
+			final Route route = mRouteLevels.getRoute();
+			mLevelPoints = new GeoPoint[indexes.length];
+			for (int h = 0; h < indexes.length; h++)
+				mLevelPoints[h] = route.getPoint(indexes[h]);
+			mLevelIndexes = indexes;
+			final int segmentCount = Math.max(0, indexes.length - 1);
+			if (mLines.length < segmentCount * 4)
+				mLines = new float[segmentCount * 4];
+			mChunkCount = (segmentCount + MapRouteOverlay.CHUNK_SEGMENTS - 1)
+					/ MapRouteOverlay.CHUNK_SEGMENTS;
+			mChunkTopLeft = new GeoPoint[mChunkCount];
+			mChunkBottomRight = new GeoPoint[mChunkCount];
+			mChunkBounds = new int[mChunkCount * 4];
+			mChunkGeneration = new int[mChunkCount];
+			for (int chunk = 0; chunk < mChunkCount; chunk++)
+			{
+				final int firstPoint = chunk * MapRouteOverlay.CHUNK_SEGMENTS;
+				final int lastPoint = Math.min(firstPoint
+						+ MapRouteOverlay.CHUNK_SEGMENTS, segmentCount);
+				int minLatE6 = Integer.MAX_VALUE;
+				int minLonE6 = Integer.MAX_VALUE;
+				int maxLatE6 = Integer.MIN_VALUE;
+				int maxLonE6 = Integer.MIN_VALUE;
+				for (int h = firstPoint; h <= lastPoint; h++)
+				{
+					final int latE6 = route.getLatitudeE6(indexes[h]);
+					final int lonE6 = route.getLongitudeE6(indexes[h]);
+					minLatE6 = Math.min(minLatE6, latE6);
+					minLonE6 = Math.min(minLonE6, lonE6);
+					maxLatE6 = Math.max(maxLatE6, latE6);
+					maxLonE6 = Math.max(maxLonE6, lonE6);
+				}
+				mChunkTopLeft[chunk] = new GeoPoint(maxLatE6, minLonE6);
+				mChunkBottomRight[chunk] = new GeoPoint(minLatE6, maxLonE6);
+			}
+		}
+		if (mChunkCount == 0)
+			return;
+		// Projecting two corners per chunk is far cheaper than projecting
+		// every segment, and the Mercator projection preserves their order
+		projection.toPixels(mReferencePoint, mScratchPoint);
+		final int originX = mScratchPoint.x;
+		final int originY = mScratchPoint.y;
+		for (int chunk = 0; chunk < mChunkCount; chunk++)
+		{
+			final int bounds = chunk * 4;
+			projection.toPixels(mChunkTopLeft[chunk], mScratchPoint);
+			mChunkBounds[bounds] = mScratchPoint.x - originX;
+			mChunkBounds[bounds + 1] = mScratchPoint.y - originY;
+			projection.toPixels(mChunkBottomRight[chunk], mScratchPoint);
+			mChunkBounds[bounds + 2] = mScratchPoint.x - originX;
+			mChunkBounds[bounds + 3] = mScratchPoint.y - originY;
+		}
 	}
-}
\ No newline at end of file
+}
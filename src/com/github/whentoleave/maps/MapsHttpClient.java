@@ -0,0 +1,347 @@
+package com.github.whentoleave.maps;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+import android.os.SystemClock;
+
+/**
+ * HTTP client shared by all requests to the maps services. Connections are
+ * kept alive and reused between requests, responses are requested gzip
+ * compressed, every request is bounded by connect and read timeouts as well
+ * as an overall deadline, and read buffers are drawn from a small pool rather
+ * than allocated per request. As a blocked read does not notice a timeout
+ * changed after connecting, a watchdog disconnects requests still open at
+ * their deadline.
+ */
+public class MapsHttpClient
+{
+	/**
+	 * Response stream which reads through a pooled buffer, enforces the
+	 * request's deadline and, when closed, drains any unread response so the
+	 * underlying connection can be reused
+	 */
+	private static class ResponseStream extends FilterInputStream
+	{
+		/**
+		 * Pooled read buffer, null once the stream is closed
+		 */
+		private byte[] mBuffer;
+		/**
+		 * Connection the response is read from
+		 */
+		private final HttpURLConnection mConnection;
+		/**
+		 * Number of valid bytes in mBuffer
+		 */
+		private int mCount = 0;
+		/**
+		 * Elapsed realtime after which reads fail
+		 */
+		private final long mDeadline;
+		/**
+		 * Position of the next byte to read from mBuffer
+		 */
+		private int mPosition = 0;
+		/**
+		 * Task disconnecting the connection at the deadline
+		 */
+		private final TimerTask mWatchdog;
+
+		/**
+		 * Creates a new ResponseStream
+		 * 
+		 * @param connection
+		 *            connection the response is read from
+		 * @param deadline
+		 *            elapsed realtime after which reads fail
+		 * @param watchdog
+		 *            task disconnecting the connection at the deadline,
+		 *            cancelled once the response is read or closed
+		 * @throws IOException
+		 *             if the response stream could not be opened
+		 */
+		ResponseStream(final HttpURLConnection connection,
+				final long deadline, final TimerTask watchdog)
+				throws IOException
+		{
+			super(connection.getInputStream());
+			mConnection = connection;
+			mDeadline = deadline;
+			mWatchdog = watchdog;
+			mBuffer = MapsHttpClient.acquireBuffer();
+		}
+
+		@Override
+		public int available() throws IOException
+		{
+			return mCount - mPosition + in.available();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if (mBuffer == null)
+				return;
+			try
+			{
+				// Drain a small remainder so the connection can be kept alive
+				int drained = 0;
+				while (drained < MapsHttpClient.MAX_DRAIN
+						&& SystemClock.elapsedRealtime() < mDeadline)
+				{
+					final int read = in.read(mBuffer, 0, mBuffer.length);
+					if (read == -1)
+						break;
+					drained += read;
+				}
+			} catch (final IOException e)
+			{
+				// The connection will simply not be reused
+			} finally
+			{
+				MapsHttpClient.releaseBuffer(mBuffer);
+				mBuffer = null;
+				in.close();
+				mWatchdog.cancel();
+			}
+		}
+
+		/**
+		 * Refills the buffer from the underlying stream
+		 * 
+		 * @return false if the end of the stream has been reached
+		 * @throws IOException
+		 *             if the read fails or the deadline has passed
+		 */
+		private boolean fill() throws IOException
+		{
+			if (mBuffer == null)
+				throw new IOException("Stream closed");
+			mConnection.setReadTimeout(Math.min(MapsHttpClient.READ_TIMEOUT,
+					MapsHttpClient.remaining(mDeadline)));
+			final int read;
+			try
+			{
+				read = in.read(mBuffer, 0, mBuffer.length);
+			} catch (final IOException e)
+			{
+				throw MapsHttpClient.timeoutIfExpired(e, mDeadline);
+			}
+			if (read == -1)
+			{
+				mWatchdog.cancel();
+				return false;
+			}
+			mPosition = 0;
+			mCount = read;
+			return true;
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			if (mPosition >= mCount && !fill())
+				return -1;
+			return mBuffer[mPosition++] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length)
+				throws IOException
+		{
+			if (length == 0)
+				return 0;
+			if (mPosition >= mCount && !fill())
+				return -1;
+			final int count = Math.min(length, mCount - mPosition);
+			System.arraycopy(mBuffer, mPosition, buffer, offset, count);
+			mPosition += count;
+			return count;
+		}
+	}
+
+	/**
+	 * Size of each pooled read buffer
+	 */
+	private static final int BUFFER_SIZE = 8192;
+	/**
+	 * Pool of read buffers available for reuse
+	 */
+	private static final ArrayBlockingQueue<byte[]> bufferPool = new ArrayBlockingQueue<byte[]>(
+			4);
+	/**
+	 * Timeout for establishing a connection in milliseconds
+	 */
+	private static final int CONNECT_TIMEOUT = 10000;
+	/**
+	 * Default overall deadline for a request in milliseconds
+	 */
+	public static final int DEFAULT_DEADLINE = 20000;
+	/**
+	 * Maximum number of unread bytes drained when a response is closed early
+	 */
+	private static final int MAX_DRAIN = 16 * 1024;
+	/**
+	 * Timeout for a single read in milliseconds
+	 */
+	private static final int READ_TIMEOUT = 15000;
+	/**
+	 * Timer disconnecting requests which outlive their deadline
+	 */
+	private static final Timer watchdog = new Timer("MapsHttpClient", true);
+
+	/**
+	 * Gets a read buffer from the pool, allocating one if the pool is empty
+	 * 
+	 * @return a read buffer
+	 */
+	private static byte[] acquireBuffer()
+	{
+		final byte[] buffer = MapsHttpClient.bufferPool.poll();
+		return buffer != null ? buffer : new byte[MapsHttpClient.BUFFER_SIZE];
+	}
+
+	/**
+	 * Opens the given url with the default deadline. Note that it is up to the
+	 * caller to close the stream!
+	 * 
+	 * @param url
+	 *            URL to connect to
+	 * @return an open, decompressed input stream to the url
+	 * @throws IOException
+	 *             if the connection fails or the server returns an error
+	 */
+	public static InputStream open(final String url) throws IOException
+	{
+		return MapsHttpClient.open(url, MapsHttpClient.DEFAULT_DEADLINE);
+	}
+
+	/**
+	 * Opens the given url. Note that it is up to the caller to close the
+	 * stream!
+	 * 
+	 * @param url
+	 *            URL to connect to
+	 * @param deadline
+	 *            maximum time in milliseconds the whole request, including
+	 *            reading the response, may take
+	 * @return an open, decompressed input stream to the url
+	 * @throws IOException
+	 *             if the connection fails or the server returns an error
+	 */
+	public static InputStream open(final String url, final int deadline)
+			throws IOException
+	{
+		final long deadlineTime = SystemClock.elapsedRealtime() + deadline;
+		final HttpURLConnection conn = (HttpURLConnection) new URL(url)
+				.openConnection();
+		conn.setRequestProperty("Accept-Encoding", "gzip");
+		conn.setRequestProperty("Connection", "keep-alive");
+		final TimerTask watchdogTask = new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				conn.disconnect();
+			}
+		};
+		MapsHttpClient.watchdog.schedule(watchdogTask, deadline);
+		final InputStream is;
+		try
+		{
+			conn.setConnectTimeout(Math.min(MapsHttpClient.CONNECT_TIMEOUT,
+					MapsHttpClient.remaining(deadlineTime)));
+			conn.connect();
+			conn.setReadTimeout(Math.min(MapsHttpClient.READ_TIMEOUT,
+					MapsHttpClient.remaining(deadlineTime)));
+			final int responseCode = conn.getResponseCode();
+			if (responseCode != HttpURLConnection.HTTP_OK)
+			{
+				conn.disconnect();
+				throw new IOException("HTTP " + responseCode + " for " + url);
+			}
+			is = new ResponseStream(conn, deadlineTime, watchdogTask);
+		} catch (final IOException e)
+		{
+			watchdogTask.cancel();
+			throw MapsHttpClient.timeoutIfExpired(e, deadlineTime);
+		}
+		if (!"gzip".equalsIgnoreCase(conn.getContentEncoding()))
+			return is;
+		try
+		{
+			return new GZIPInputStream(is);
+		} catch (final IOException e)
+		{
+			is.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the time left until a deadline
+	 * 
+	 * @param deadlineTime
+	 *            elapsed realtime of the deadline
+	 * @return milliseconds left until the deadline, at least 1
+	 * @throws SocketTimeoutException
+	 *             if the deadline has passed
+	 */
+	private static int remaining(final long deadlineTime)
+			throws SocketTimeoutException
+	{
+		final long remaining = deadlineTime - SystemClock.elapsedRealtime();
+		if (remaining <= 0)
+			throw new SocketTimeoutException("Request deadline exceeded");
+		return (int) Math.min(remaining, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns a read buffer to the pool
+	 * 
+	 * @param buffer
+	 *            buffer to return
+	 */
+	private static void releaseBuffer(final byte[] buffer)
+	{
+		MapsHttpClient.bufferPool.offer(buffer);
+	}
+
+	/**
+	 * Reports a failure after the deadline, which is usually caused by the
+	 * watchdog disconnecting the request, as the deadline being exceeded
+	 * 
+	 * @param e
+	 *            failure of the request
+	 * @param deadlineTime
+	 *            elapsed realtime of the deadline
+	 * @return a SocketTimeoutException caused by e if the deadline has passed,
+	 *         e otherwise
+	 */
+	private static IOException timeoutIfExpired(final IOException e,
+			final long deadlineTime)
+	{
+		if (e instanceof SocketTimeoutException
+				|| SystemClock.elapsedRealtime() < deadlineTime)
+			return e;
+		final SocketTimeoutException timeout = new SocketTimeoutException(
+				"Request deadline exceeded");
+		timeout.initCause(e);
+		return timeout;
+	}
+}
@@ -0,0 +1,60 @@
+package com.github.whentoleave.maps;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a maps web service response reports that the service failed
+ * the request, such as with OVER_QUERY_LIMIT, REQUEST_DENIED or
+ * UNKNOWN_ERROR, even though the HTTP request itself succeeded
+ */
+public class MapsServiceException extends IOException
+{
+	/**
+	 * Serialization version
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Checks the status of a maps web service response
+	 * 
+	 * @param status
+	 *            status of the response, or null if it had none
+	 * @throws MapsServiceException
+	 *             unless the status is OK, or ZERO_RESULTS or NOT_FOUND which
+	 *             only mean that nothing matched the request
+	 */
+	public static void checkStatus(final String status)
+			throws MapsServiceException
+	{
+		if (!"OK".equals(status) && !"ZERO_RESULTS".equals(status)
+				&& !"NOT_FOUND".equals(status))
+			throw new MapsServiceException(status);
+	}
+
+	/**
+	 * Status of the response
+	 */
+	private final String mStatus;
+
+	/**
+	 * Creates a new MapsServiceException
+	 * 
+	 * @param status
+	 *            status of the response, or null if it had none
+	 */
+	public MapsServiceException(final String status)
+	{
+		super("Maps service responded with status " + status);
+		mStatus = status;
+	}
+
+	/**
+	 * Getter for the status of the response
+	 * 
+	 * @return status of the response, or null if it had none
+	 */
+	public String getStatus()
+	{
+		return mStatus;
+	}
+}
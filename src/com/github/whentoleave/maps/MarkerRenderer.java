@@ -0,0 +1,213 @@
+package com.github.whentoleave.maps;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Draws square map markers of a given color, optionally numbered, on demand.
+ * Markers are laid out in density-independent pixels and rendered at the
+ * screen's density. Rendered markers are shared through a process wide cache
+ * bounded by the number of bytes of its bitmaps, evicting the least recently
+ * used markers, so that memory is only spent on the markers actually shown
+ * and any number can be drawn.
+ */
+public class MarkerRenderer
+{
+	/**
+	 * Color of the marker's face
+	 */
+	private static final int FACE_COLOR = 0xff363636;
+	/**
+	 * Width of the colored frame around the marker's face in
+	 * density-independent pixels
+	 */
+	private static final int FRAME_WIDTH = 5;
+	/**
+	 * Maximum number of bytes of bitmaps held by the cache
+	 */
+	private static final int MAX_CACHE_BYTES = 256 * 1024;
+	/**
+	 * Maximum size of the number's text in density-independent pixels
+	 */
+	private static final float MAX_TEXT_SIZE = 18;
+	/**
+	 * Color of the marker's drop shadow
+	 */
+	private static final int SHADOW_COLOR = 0x80393939;
+	/**
+	 * Width and height of markers in density-independent pixels
+	 */
+	public static final int SIZE = 36;
+	/**
+	 * Rendered markers, keyed by color and number, in least recently used
+	 * order
+	 */
+	private static final LinkedHashMap<Long, Bitmap> cache = new LinkedHashMap<Long, Bitmap>(
+			16, 0.75f, true);
+	/**
+	 * Number of bytes of bitmaps held by the cache
+	 */
+	private static int cacheBytes = 0;
+	/**
+	 * Display density the cached bitmaps were rendered at
+	 */
+	private static float cacheDensity = 0;
+	/**
+	 * Paint used to draw the marker, guarded by the class lock
+	 */
+	private static final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+	/**
+	 * Gets the bitmap of a marker from the cache, rendering and caching it if
+	 * necessary. The cache only holds bitmaps of one density, so it is
+	 * cleared if the density changes.
+	 * 
+	 * @param color
+	 *            ARGB color of the marker's frame
+	 * @param number
+	 *            number shown on the marker, or 0 for none
+	 * @param density
+	 *            display density to render the marker at
+	 * @return the marker's bitmap
+	 */
+	private static synchronized Bitmap getBitmap(final int color,
+			final int number, final float density)
+	{
+		if (density != MarkerRenderer.cacheDensity)
+		{
+			MarkerRenderer.cache.clear();
+			MarkerRenderer.cacheBytes = 0;
+			MarkerRenderer.cacheDensity = density;
+		}
+		final Long key = (long) color << 32 | number & 0xffffffffL;
+		Bitmap bitmap = MarkerRenderer.cache.get(key);
+		if (bitmap != null)
+			return bitmap;
+		bitmap = MarkerRenderer.render(color, number, density);
+		MarkerRenderer.cache.put(key, bitmap);
+		MarkerRenderer.cacheBytes += bitmap.getRowBytes() * bitmap.getHeight();
+		// Evicted bitmaps are not recycled as they may still be drawn by a
+		// marker on the map; they are collected once no longer referenced
+		final Iterator<Map.Entry<Long, Bitmap>> eldest = MarkerRenderer.cache
+				.entrySet().iterator();
+		while (MarkerRenderer.cacheBytes > MarkerRenderer.MAX_CACHE_BYTES
+				&& MarkerRenderer.cache.size() > 1)
+		{
+			final Bitmap evicted = eldest.next().getValue();
+			MarkerRenderer.cacheBytes -= evicted.getRowBytes()
+					* evicted.getHeight();
+			eldest.remove();
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Gets a square marker, rendering it if it is not in the cache. Each call
+	 * returns a new Drawable, with bounds set, sharing the cached bitmap.
+	 * 
+	 * @param resources
+	 *            resources used to determine the density of the marker
+	 * @param color
+	 *            ARGB color of the marker's frame
+	 * @param number
+	 *            number shown on the marker, or 0 for none
+	 * @return the marker
+	 */
+	public static Drawable getMarker(final Resources resources,
+			final int color, final int number)
+	{
+		final float density = resources.getDisplayMetrics().density;
+		final Drawable marker = new BitmapDrawable(resources,
+				MarkerRenderer.getBitmap(color, number, density));
+		final int size = MarkerRenderer.getSize(resources);
+		marker.setBounds(0, 0, size, size);
+		return marker;
+	}
+
+	/**
+	 * Gets the width and height of markers on the screen, so that other
+	 * markers can be sized to match
+	 * 
+	 * @param resources
+	 *            resources used to determine the density of the screen
+	 * @return width and height of markers in pixels
+	 */
+	public static int getSize(final Resources resources)
+	{
+		return MarkerRenderer.getSize(resources.getDisplayMetrics().density);
+	}
+
+	/**
+	 * Gets the width and height of markers rendered at a given density
+	 * 
+	 * @param density
+	 *            display density
+	 * @return width and height of markers in pixels
+	 */
+	private static int getSize(final float density)
+	{
+		return Math.max(1, Math.round(MarkerRenderer.SIZE * density));
+	}
+
+	/**
+	 * Renders a marker: a square with a drop shadow, a colored frame and a
+	 * dark face showing the number in white
+	 * 
+	 * @param color
+	 *            ARGB color of the marker's frame
+	 * @param number
+	 *            number shown on the marker, or 0 for none
+	 * @param density
+	 *            display density to render the marker at
+	 * @return the marker's bitmap
+	 */
+	private static Bitmap render(final int color, final int number,
+			final float density)
+	{
+		final int size = MarkerRenderer.SIZE;
+		final int pixelSize = MarkerRenderer.getSize(density);
+		final Bitmap bitmap = Bitmap.createBitmap(pixelSize, pixelSize,
+				Bitmap.Config.ARGB_8888);
+		final Canvas canvas = new Canvas(bitmap);
+		// Draw in density-independent pixels, scaled to fill the bitmap
+		final float scale = pixelSize / (float) size;
+		canvas.scale(scale, scale);
+		final Paint markerPaint = MarkerRenderer.paint;
+		markerPaint.setStyle(Paint.Style.FILL);
+		markerPaint.setColor(MarkerRenderer.SHADOW_COLOR);
+		canvas.drawRect(2, 2, size, size, markerPaint);
+		markerPaint.setColor(color);
+		canvas.drawRect(0, 0, size - 2, size - 2, markerPaint);
+		markerPaint.setColor(MarkerRenderer.FACE_COLOR);
+		canvas.drawRect(MarkerRenderer.FRAME_WIDTH, MarkerRenderer.FRAME_WIDTH,
+				size - 2 - MarkerRenderer.FRAME_WIDTH, size - 2
+						- MarkerRenderer.FRAME_WIDTH, markerPaint);
+		if (number == 0)
+			return bitmap;
+		final String text = Integer.toString(number);
+		markerPaint.setColor(0xffffffff);
+		markerPaint.setFakeBoldText(true);
+		markerPaint.setTextAlign(Paint.Align.CENTER);
+		// Shrink longer numbers to fit the face
+		final float faceWidth = size - 2 - 2 * MarkerRenderer.FRAME_WIDTH - 2;
+		markerPaint.setTextSize(MarkerRenderer.MAX_TEXT_SIZE);
+		final float textWidth = markerPaint.measureText(text);
+		if (textWidth > faceWidth)
+			markerPaint.setTextSize(MarkerRenderer.MAX_TEXT_SIZE * faceWidth
+					/ textWidth);
+		final float center = (size - 2) / 2f;
+		canvas.drawText(text, center,
+				center - (markerPaint.descent() + markerPaint.ascent()) / 2,
+				markerPaint);
+		markerPaint.setFakeBoldText(false);
+		return bitmap;
+	}
+}
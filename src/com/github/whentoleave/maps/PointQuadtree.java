@@ -0,0 +1,419 @@
+package com.github.whentoleave.maps;
+
+/**
+ * Linear quadtree over a fixed set of map points. Each point is projected
+ * into Mercator pixel coordinates at the most detailed zoom level and the
+ * points are sorted by the Morton (Z-order) code of those coordinates, so
+ * that the points in any quadtree cell are contiguous in the sorted order.
+ * Grouping the points into the cells of a level is then a single linear scan,
+ * and the cells of a level nest exactly within those of the level above.
+ */
+public class PointQuadtree
+{
+	/**
+	 * Number of bits of the pixel coordinates: the world is 256 pixels wide at
+	 * zoom level 0 and doubles with each of the 21 zoom levels
+	 */
+	public static final int COORDINATE_BITS = 29;
+	/**
+	 * Number of points below which a query tests the points of a cell one by
+	 * one rather than descending into its sub-cells
+	 */
+	private static final int LEAF_SIZE = 8;
+	/**
+	 * Highest latitude the Mercator projection of the map covers
+	 */
+	private static final double MAX_LATITUDE = 85.05112878;
+
+	/**
+	 * Interleaves the bits of two coordinates into their Morton code
+	 * 
+	 * @param x
+	 *            x coordinate, taking the even bits
+	 * @param y
+	 *            y coordinate, taking the odd bits
+	 * @return Morton code of the coordinates
+	 */
+	private static long interleave(final int x, final int y)
+	{
+		long code = 0;
+		for (int bit = 0; bit < PointQuadtree.COORDINATE_BITS; bit++)
+		{
+			code |= (long) (x >>> bit & 1) << 2 * bit;
+			code |= (long) (y >>> bit & 1) << 2 * bit + 1;
+		}
+		return code;
+	}
+
+	/**
+	 * Finds the first position in a sorted range of codes whose code is not
+	 * less than the given code
+	 * 
+	 * @param codes
+	 *            sorted codes
+	 * @param from
+	 *            first position of the range
+	 * @param to
+	 *            position after the last position of the range
+	 * @param code
+	 *            code to search for
+	 * @return the position, or to if all codes in the range are less
+	 */
+	private static int lowerBound(final long[] codes, final int from,
+			final int to, final long code)
+	{
+		int low = from;
+		int high = to;
+		while (low < high)
+		{
+			final int middle = low + high >>> 1;
+			if (codes[middle] < code)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Sorts parallel arrays of codes and point indexes by code, using a stable
+	 * bottom up merge sort so that points with equal codes keep their order
+	 * 
+	 * @param codes
+	 *            codes to sort by
+	 * @param order
+	 *            point indexes to sort along with the codes
+	 */
+	private static void sortByCode(final long[] codes, final int[] order)
+	{
+		final int count = codes.length;
+		long[] fromCodes = codes;
+		int[] fromOrder = order;
+		long[] toCodes = new long[count];
+		int[] toOrder = new int[count];
+		for (int width = 1; width < count; width *= 2)
+		{
+			for (int start = 0; start < count; start += 2 * width)
+			{
+				final int middle = Math.min(start + width, count);
+				final int end = Math.min(start + 2 * width, count);
+				int left = start;
+				int right = middle;
+				for (int h = start; h < end; h++)
+					if (left < middle
+							&& (right >= end
+									|| fromCodes[left] <= fromCodes[right]))
+					{
+						toCodes[h] = fromCodes[left];
+						toOrder[h] = fromOrder[left++];
+					}
+					else
+					{
+						toCodes[h] = fromCodes[right];
+						toOrder[h] = fromOrder[right++];
+					}
+			}
+			final long[] swapCodes = fromCodes;
+			fromCodes = toCodes;
+			toCodes = swapCodes;
+			final int[] swapOrder = fromOrder;
+			fromOrder = toOrder;
+			toOrder = swapOrder;
+		}
+		if (fromCodes != codes)
+		{
+			System.arraycopy(fromCodes, 0, codes, 0, count);
+			System.arraycopy(fromOrder, 0, order, 0, count);
+		}
+	}
+
+	/**
+	 * Converts a longitude to a Mercator x pixel coordinate at the most
+	 * detailed zoom level
+	 * 
+	 * @param lonE6
+	 *            longitude in microdegrees
+	 * @return x pixel coordinate, increasing eastwards
+	 */
+	public static int toPixelX(final int lonE6)
+	{
+		final double x = (lonE6 / 1E6 + 180) / 360;
+		return (int) Math.max(0, Math.min((1 << PointQuadtree.COORDINATE_BITS)
+				- 1, x * (1 << PointQuadtree.COORDINATE_BITS)));
+	}
+
+	/**
+	 * Converts a latitude to a Mercator y pixel coordinate at the most
+	 * detailed zoom level
+	 * 
+	 * @param latE6
+	 *            latitude in microdegrees
+	 * @return y pixel coordinate, increasing southwards
+	 */
+	public static int toPixelY(final int latE6)
+	{
+		final double latitude = Math.max(-PointQuadtree.MAX_LATITUDE,
+				Math.min(PointQuadtree.MAX_LATITUDE, latE6 / 1E6));
+		final double sin = Math.sin(Math.toRadians(latitude));
+		final double y = 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+		return (int) Math.max(0, Math.min((1 << PointQuadtree.COORDINATE_BITS)
+				- 1, y * (1 << PointQuadtree.COORDINATE_BITS)));
+	}
+
+	/**
+	 * Start of each cell, in sorted order, for each level built so far
+	 */
+	private final int[][] mCells = new int[PointQuadtree.COORDINATE_BITS + 1][];
+	/**
+	 * Morton code of each point, in sorted order
+	 */
+	private final long[] mCodes;
+	/**
+	 * Index of each point, in sorted order
+	 */
+	private final int[] mOrder;
+	/**
+	 * X pixel coordinate of each point, in sorted order
+	 */
+	private final int[] mX;
+	/**
+	 * Y pixel coordinate of each point, in sorted order
+	 */
+	private final int[] mY;
+
+	/**
+	 * Builds the quadtree of the given points
+	 * 
+	 * @param latE6
+	 *            latitudes of the points in microdegrees
+	 * @param lonE6
+	 *            longitudes of the points in microdegrees
+	 * @param count
+	 *            number of points
+	 */
+	public PointQuadtree(final int[] latE6, final int[] lonE6, final int count)
+	{
+		mCodes = new long[count];
+		mOrder = new int[count];
+		for (int h = 0; h < count; h++)
+		{
+			mCodes[h] = PointQuadtree.interleave(
+					PointQuadtree.toPixelX(lonE6[h]),
+					PointQuadtree.toPixelY(latE6[h]));
+			mOrder[h] = h;
+		}
+		PointQuadtree.sortByCode(mCodes, mOrder);
+		mX = new int[count];
+		mY = new int[count];
+		for (int h = 0; h < count; h++)
+		{
+			mX[h] = PointQuadtree.toPixelX(lonE6[mOrder[h]]);
+			mY[h] = PointQuadtree.toPixelY(latE6[mOrder[h]]);
+		}
+	}
+
+	/**
+	 * Groups the points by the cells of the given level, in which the world is
+	 * divided into 2^level by 2^level cells. Levels are built on first use and
+	 * cached. As cells nest within those of the level above, a level is built
+	 * from the cells of the nearest finer level already built, if any, rather
+	 * than from every point.
+	 * 
+	 * @param level
+	 *            quadtree level, from 0 to {@link #COORDINATE_BITS}
+	 * @return sorted position of the first point of each non-empty cell,
+	 *         followed by the number of points. The points of cell h are
+	 *         {@link #getPoint(int)} from [h] to [h + 1] - 1.
+	 */
+	public synchronized int[] getCells(final int level)
+	{
+		final int clampedLevel = Math.max(0,
+				Math.min(level, PointQuadtree.COORDINATE_BITS));
+		if (mCells[clampedLevel] != null)
+			return mCells[clampedLevel];
+		final int shift = 2 * (PointQuadtree.COORDINATE_BITS - clampedLevel);
+		int[] finerCells = null;
+		for (int finer = clampedLevel + 1; finerCells == null
+				&& finer <= PointQuadtree.COORDINATE_BITS; finer++)
+			finerCells = mCells[finer];
+		final int candidateCount = finerCells == null ? mCodes.length
+				: finerCells.length - 1;
+		int cellCount = 0;
+		for (int h = 0; h < candidateCount; h++)
+		{
+			final int position = finerCells == null ? h : finerCells[h];
+			if (isCellStart(position, shift))
+				cellCount++;
+		}
+		final int[] cells = new int[cellCount + 1];
+		int cell = 0;
+		for (int h = 0; h < candidateCount; h++)
+		{
+			final int position = finerCells == null ? h : finerCells[h];
+			if (isCellStart(position, shift))
+				cells[cell++] = position;
+		}
+		cells[cellCount] = mCodes.length;
+		mCells[clampedLevel] = cells;
+		return cells;
+	}
+
+	/**
+	 * Gets a point by its position in the sorted order
+	 * 
+	 * @param position
+	 *            sorted position, from 0 to {@link #size()} - 1
+	 * @return index of the point as passed to the constructor
+	 */
+	public int getPoint(final int position)
+	{
+		return mOrder[position];
+	}
+
+	/**
+	 * Gets the x pixel coordinate of a point at the most detailed zoom level
+	 * 
+	 * @param position
+	 *            sorted position, from 0 to {@link #size()} - 1
+	 * @return x pixel coordinate of the point
+	 */
+	public int getX(final int position)
+	{
+		return mX[position];
+	}
+
+	/**
+	 * Gets the y pixel coordinate of a point at the most detailed zoom level
+	 * 
+	 * @param position
+	 *            sorted position, from 0 to {@link #size()} - 1
+	 * @return y pixel coordinate of the point
+	 */
+	public int getY(final int position)
+	{
+		return mY[position];
+	}
+
+	/**
+	 * Whether the point at the given sorted position is the first of its cell
+	 * 
+	 * @param position
+	 *            sorted position of the point
+	 * @param shift
+	 *            number of low bits of the codes below the cells of the level
+	 * @return true if the point is in a different cell from the point before
+	 *         it
+	 */
+	private boolean isCellStart(final int position, final int shift)
+	{
+		return position == 0
+				|| mCodes[position] >>> shift != mCodes[position - 1] >>> shift;
+	}
+
+	/**
+	 * Finds the points within a rectangle of pixel coordinates at the most
+	 * detailed zoom level, descending only into the cells intersecting it
+	 * 
+	 * @param left
+	 *            smallest x pixel coordinate
+	 * @param top
+	 *            smallest y pixel coordinate
+	 * @param right
+	 *            largest x pixel coordinate
+	 * @param bottom
+	 *            largest y pixel coordinate
+	 * @param positions
+	 *            receives the sorted positions of the points found; must hold
+	 *            at least {@link #size()} positions
+	 * @return number of points found
+	 */
+	public int query(final int left, final int top, final int right,
+			final int bottom, final int[] positions)
+	{
+		return query(0, 0, 0, 0, 0, mCodes.length, left, top, right, bottom,
+				positions, 0);
+	}
+
+	/**
+	 * Finds the points of a cell within a rectangle of pixel coordinates
+	 * 
+	 * @param level
+	 *            quadtree level of the cell
+	 * @param cellX
+	 *            x coordinate of the cell at its level
+	 * @param cellY
+	 *            y coordinate of the cell at its level
+	 * @param cellCode
+	 *            Morton code of the cell at its level, the prefix of the codes
+	 *            of its points
+	 * @param from
+	 *            sorted position of the first point of the cell
+	 * @param to
+	 *            sorted position after the last point of the cell
+	 * @param left
+	 *            smallest x pixel coordinate
+	 * @param top
+	 *            smallest y pixel coordinate
+	 * @param right
+	 *            largest x pixel coordinate
+	 * @param bottom
+	 *            largest y pixel coordinate
+	 * @param positions
+	 *            receives the sorted positions of the points found
+	 * @param found
+	 *            number of points found so far
+	 * @return number of points found, including those found so far
+	 */
+	private int query(final int level, final int cellX, final int cellY,
+			final long cellCode, final int from, final int to,
+			final int left, final int top, final int right, final int bottom,
+			final int[] positions, final int found)
+	{
+		if (from == to)
+			return found;
+		final int shift = PointQuadtree.COORDINATE_BITS - level;
+		final long cellLeft = (long) cellX << shift;
+		final long cellTop = (long) cellY << shift;
+		final long cellRight = cellLeft + (1L << shift) - 1;
+		final long cellBottom = cellTop + (1L << shift) - 1;
+		if (cellRight < left || cellLeft > right || cellBottom < top
+				|| cellTop > bottom)
+			return found;
+		int count = found;
+		final boolean inside = cellLeft >= left && cellRight <= right
+				&& cellTop >= top && cellBottom <= bottom;
+		if (inside || to - from <= PointQuadtree.LEAF_SIZE || shift == 0)
+		{
+			for (int h = from; h < to; h++)
+				if (inside || mX[h] >= left && mX[h] <= right
+						&& mY[h] >= top && mY[h] <= bottom)
+					positions[count++] = h;
+			return count;
+		}
+		// The sub-cells of a cell are contiguous in the sorted order, in
+		// Morton order: x varies first, then y
+		final int childShift = 2 * (shift - 1);
+		int childFrom = from;
+		for (int child = 0; child < 4; child++)
+		{
+			final long childCode = cellCode << 2 | child;
+			final int childTo = child == 3 ? to : PointQuadtree.lowerBound(
+					mCodes, childFrom, to, childCode + 1 << childShift);
+			count = query(level + 1, cellX << 1 | child & 1,
+					cellY << 1 | child >> 1, childCode, childFrom, childTo,
+					left, top, right, bottom, positions, count);
+			childFrom = childTo;
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the number of points
+	 * 
+	 * @return number of points
+	 */
+	public int size()
+	{
+		return mOrder.length;
+	}
+}
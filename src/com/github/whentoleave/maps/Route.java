@@ -1,11 +1,14 @@
 package com.github.whentoleave.maps;
 
-import java.util.ArrayList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 import com.google.android.maps.GeoPoint;
 
 /**
- * Represents a Route on a map.<br />
+ * Represents a Route on a map. The points of the route are stored packed in
+ * primitive arrays of microdegrees rather than as individual GeoPoints.<br />
  * <br />
  * Modified from <a href=
  * "http://code.google.com/p/j2memaprouteprovider/source/browse/trunk/J2MEMapRouteAndroidEx/src/org/ci/geo/route/Road.java"
@@ -13,16 +16,274 @@ import com.google.android.maps.GeoPoint;
  */
 public class Route
 {
+	/**
+	 * Initial capacity of the point arrays
+	 */
+	private static final int INITIAL_CAPACITY = 256;
+	/**
+	 * Largest number of points accepted by {@link #read(DataInput)}, well
+	 * beyond any real route, so that corrupt input cannot cause a huge
+	 * allocation
+	 */
+	private static final int MAX_POINT_COUNT = 1 << 20;
+	/**
+	 * Version of the serialized form written by {@link #write(DataOutput)}
+	 */
+	private static final int SERIAL_VERSION = 1;
+
+	/**
+	 * Reads a route in the serialized form written by
+	 * {@link #write(DataOutput)}
+	 * 
+	 * @param in
+	 *            input to read from
+	 * @return the route
+	 * @throws IOException
+	 *             if the route could not be read, is of an unknown version or
+	 *             has an invalid number of points
+	 */
+	public static Route read(final DataInput in) throws IOException
+	{
+		final int version = in.readByte();
+		if (version != Route.SERIAL_VERSION)
+			throw new IOException("Unknown route version " + version);
+		final Route route = new Route();
+		route.mName = in.readBoolean() ? in.readUTF() : null;
+		route.mDescription = in.readBoolean() ? in.readUTF() : null;
+		final int pointCount = Route.readVarInt(in);
+		if (pointCount < 0 || pointCount > Route.MAX_POINT_COUNT)
+			throw new IOException("Invalid route point count " + pointCount);
+		route.mLatE6 = new int[pointCount];
+		route.mLonE6 = new int[pointCount];
+		int latE6 = 0;
+		int lonE6 = 0;
+		for (int h = 0; h < pointCount; h++)
+		{
+			latE6 += Route.readSignedVarInt(in);
+			lonE6 += Route.readSignedVarInt(in);
+			route.mLatE6[h] = latE6;
+			route.mLonE6[h] = lonE6;
+		}
+		route.mPointCount = pointCount;
+		return route;
+	}
+
+	/**
+	 * Reads a zigzag encoded variable length integer
+	 * 
+	 * @param in
+	 *            input to read from
+	 * @return the integer
+	 * @throws IOException
+	 *             if the integer could not be read
+	 */
+	private static int readSignedVarInt(final DataInput in) throws IOException
+	{
+		final int zigzag = Route.readVarInt(in);
+		return zigzag >>> 1 ^ -(zigzag & 1);
+	}
+
+	/**
+	 * Reads an unsigned variable length integer
+	 * 
+	 * @param in
+	 *            input to read from
+	 * @return the integer
+	 * @throws IOException
+	 *             if the integer could not be read
+	 */
+	private static int readVarInt(final DataInput in) throws IOException
+	{
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7)
+		{
+			final int b = in.readByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed variable length integer");
+	}
+
+	/**
+	 * Writes a zigzag encoded variable length integer, using fewer bytes the
+	 * closer the value is to 0
+	 * 
+	 * @param out
+	 *            output to write to
+	 * @param value
+	 *            integer to write
+	 * @throws IOException
+	 *             if the integer could not be written
+	 */
+	private static void writeSignedVarInt(final DataOutput out, final int value)
+			throws IOException
+	{
+		Route.writeVarInt(out, value << 1 ^ value >> 31);
+	}
+
+	/**
+	 * Writes an unsigned variable length integer, seven bits per byte
+	 * 
+	 * @param out
+	 *            output to write to
+	 * @param value
+	 *            integer to write
+	 * @throws IOException
+	 *             if the integer could not be written
+	 */
+	private static void writeVarInt(final DataOutput out, final int value)
+			throws IOException
+	{
+		int remaining = value;
+		while ((remaining & ~0x7f) != 0)
+		{
+			out.writeByte(remaining & 0x7f | 0x80);
+			remaining >>>= 7;
+		}
+		out.writeByte(remaining);
+	}
+
 	/**
 	 * Description of the Route
 	 */
 	public String mDescription;
+	/**
+	 * Latitudes of the points in the Route, in microdegrees
+	 */
+	private int[] mLatE6 = new int[Route.INITIAL_CAPACITY];
+	/**
+	 * Longitudes of the points in the Route, in microdegrees
+	 */
+	private int[] mLonE6 = new int[Route.INITIAL_CAPACITY];
 	/**
 	 * Name or title of the Route
 	 */
 	public String mName;
 	/**
-	 * Lat/Long pairs representing the points in the Route
+	 * Number of points in the Route
+	 */
+	private int mPointCount = 0;
+
+	/**
+	 * Appends a point to the end of the Route
+	 * 
+	 * @param latE6
+	 *            latitude of the point in microdegrees
+	 * @param lonE6
+	 *            longitude of the point in microdegrees
+	 */
+	public void addPoint(final int latE6, final int lonE6)
+	{
+		if (mPointCount == mLatE6.length)
+		{
+			final int capacity = Math.max(Route.INITIAL_CAPACITY,
+					mPointCount * 2);
+			final int[] latE6s = new int[capacity];
+			final int[] lonE6s = new int[capacity];
+			System.arraycopy(mLatE6, 0, latE6s, 0, mPointCount);
+			System.arraycopy(mLonE6, 0, lonE6s, 0, mPointCount);
+			mLatE6 = latE6s;
+			mLonE6 = lonE6s;
+		}
+		mLatE6[mPointCount] = latE6;
+		mLonE6[mPointCount] = lonE6;
+		mPointCount++;
+	}
+
+	/**
+	 * Gets the latitude of a point
+	 * 
+	 * @param index
+	 *            index of the point, from 0 to {@link #getPointCount()} - 1
+	 * @return latitude of the point in microdegrees
+	 */
+	public int getLatitudeE6(final int index)
+	{
+		return mLatE6[index];
+	}
+
+	/**
+	 * Gets the longitude of a point
+	 * 
+	 * @param index
+	 *            index of the point, from 0 to {@link #getPointCount()} - 1
+	 * @return longitude of the point in microdegrees
+	 */
+	public int getLongitudeE6(final int index)
+	{
+		return mLonE6[index];
+	}
+
+	/**
+	 * Gets a point as a GeoPoint. Note that this allocates a new GeoPoint on
+	 * each call, so prefer {@link #getLatitudeE6(int)} and
+	 * {@link #getLongitudeE6(int)} in loops.
+	 * 
+	 * @param index
+	 *            index of the point, from 0 to {@link #getPointCount()} - 1
+	 * @return the point
+	 */
+	public GeoPoint getPoint(final int index)
+	{
+		return new GeoPoint(mLatE6[index], mLonE6[index]);
+	}
+
+	/**
+	 * Gets the number of points in the Route
+	 * 
+	 * @return number of points
+	 */
+	public int getPointCount()
+	{
+		return mPointCount;
+	}
+
+	/**
+	 * Releases any unused capacity, such as once the Route has been fully
+	 * parsed
+	 */
+	public void trimToSize()
+	{
+		if (mPointCount == mLatE6.length)
+			return;
+		final int[] latE6s = new int[mPointCount];
+		final int[] lonE6s = new int[mPointCount];
+		System.arraycopy(mLatE6, 0, latE6s, 0, mPointCount);
+		System.arraycopy(mLonE6, 0, lonE6s, 0, mPointCount);
+		mLatE6 = latE6s;
+		mLonE6 = lonE6s;
+	}
+
+	/**
+	 * Writes the Route in a compact serialized form, with each point encoded
+	 * as a variable length delta from the previous point. Adjacent points are
+	 * close together, so most points take 2 to 4 bytes rather than 8.
+	 * 
+	 * @param out
+	 *            output to write to
+	 * @throws IOException
+	 *             if the route could not be written
+	 * @see #read(DataInput)
 	 */
-	public ArrayList<GeoPoint> mRoute = new ArrayList<GeoPoint>();
+	public void write(final DataOutput out) throws IOException
+	{
+		out.writeByte(Route.SERIAL_VERSION);
+		out.writeBoolean(mName != null);
+		if (mName != null)
+			out.writeUTF(mName);
+		out.writeBoolean(mDescription != null);
+		if (mDescription != null)
+			out.writeUTF(mDescription);
+		Route.writeVarInt(out, mPointCount);
+		int latE6 = 0;
+		int lonE6 = 0;
+		for (int h = 0; h < mPointCount; h++)
+		{
+			Route.writeSignedVarInt(out, mLatE6[h] - latE6);
+			Route.writeSignedVarInt(out, mLonE6[h] - lonE6);
+			latE6 = mLatE6[h];
+			lonE6 = mLonE6[h];
+		}
+	}
 }
@@ -0,0 +1,74 @@
+package com.github.whentoleave.maps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import android.location.Location;
+
+/**
+ * Source of the raw responses behind {@link RouteInformation} and
+ * {@link RouteProvider}, allowing the maps services to be replaced, such as by
+ * the test project's StubRouteServer. Each method returns the response in
+ * the format of the corresponding Google service. Note that it is up to the
+ * caller to close the returned streams!
+ */
+public interface RouteBackend
+{
+	/**
+	 * Requests directions from a location to a destination
+	 * 
+	 * @param origin
+	 *            starting location
+	 * @param destination
+	 *            destination address
+	 * @param travelType
+	 *            transportation mode to use
+	 * @return stream containing a Directions JSON response
+	 * @throws IOException
+	 *             if the request fails
+	 */
+	public InputStream openDirections(Location origin, String destination,
+			String travelType) throws IOException;
+
+	/**
+	 * Requests the travel times from a location to each of the destinations
+	 * 
+	 * @param origin
+	 *            starting location
+	 * @param destinations
+	 *            destination addresses
+	 * @param travelType
+	 *            transportation mode to use
+	 * @return stream containing a Distance Matrix JSON response
+	 * @throws IOException
+	 *             if the request fails
+	 */
+	public InputStream openDistanceMatrix(Location origin,
+			List<String> destinations, String travelType) throws IOException;
+
+	/**
+	 * Requests the location of an address
+	 * 
+	 * @param address
+	 *            address to geocode
+	 * @return stream containing a Geocoding JSON response
+	 * @throws IOException
+	 *             if the request fails
+	 */
+	public InputStream openGeocode(String address) throws IOException;
+
+	/**
+	 * Requests the geometry of the route from a location to a destination
+	 * 
+	 * @param origin
+	 *            starting location
+	 * @param destination
+	 *            destination address
+	 * @return stream containing a KML route
+	 * @throws IOException
+	 *             if the request fails
+	 */
+	public InputStream openRoute(Location origin, String destination)
+			throws IOException;
+}
@@ -1,18 +1,18 @@
 package com.github.whentoleave.maps;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
-
-import org.json.JSONArray;
-import org.json.JSONObject;
-import org.json.JSONTokener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
+import android.content.Context;
 import android.location.Location;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
 import android.util.Log;
 
 import com.google.android.maps.GeoPoint;
@@ -22,127 +22,203 @@ import com.google.android.maps.GeoPoint;
  */
 public class RouteInformation
 {
+	/**
+	 * Receives the result for each address of a batch as soon as it has been
+	 * geocoded
+	 */
+	public interface LocationListener
+	{
+		/**
+		 * Called once an address has been geocoded, on the geocoding thread
+		 * 
+		 * @param index
+		 *            index of the address in the batch
+		 * @param point
+		 *            GeoPoint representing the best guess lat/long for the
+		 *            address, or null if it could not be geocoded
+		 */
+		void onLocation(int index, GeoPoint point);
+	}
+
+	/**
+	 * Backend the maps service responses are requested from
+	 */
+	private static volatile RouteBackend backend = new HttpRouteBackend();
+	/**
+	 * Fails requests fast while the maps services are failing, opening after
+	 * 3 consecutive failures and backing off from 30 seconds up to 30 minutes
+	 */
+	private static final CircuitBreaker breaker = new CircuitBreaker(3,
+			30 * 1000, 30 * 60 * 1000, 2 * MapsHttpClient.DEFAULT_DEADLINE);
+	/**
+	 * Used to check for network connectivity, available once
+	 * {@link #init(Context)} has been called
+	 */
+	private static ConnectivityManager connectivityManager = null;
+	/**
+	 * Cache of recently computed travel times, shared by every caller
+	 */
+	private static final TravelTimeCache durationCache = new TravelTimeCache(
+			32, 5 * 60 * 1000);
+	/**
+	 * Coalesces concurrent travel time requests for the same trip
+	 */
+	private static final SingleFlight<String, Integer> durationFlight = new SingleFlight<String, Integer>();
+	/**
+	 * Local travel time estimator used when the routing service cannot be
+	 * reached
+	 */
+	private static final TravelTimeEstimator estimator = new TravelTimeEstimator();
+	/**
+	 * Preferences name the estimator's calibration is stored in
+	 */
+	private static final String ESTIMATOR_PREF = "TravelTimeEstimator";
+	/**
+	 * Persistent store of geocoded addresses, available once
+	 * {@link #init(Context)} has been called
+	 */
+	private static GeocodeStore geocodeStore = null;
+	/**
+	 * Coalesces concurrent geocoding requests for the same address
+	 */
+	private static final SingleFlight<String, GeoPoint> locationFlight = new SingleFlight<String, GeoPoint>();
+	/**
+	 * Maximum number of destinations the Distance Matrix service accepts in a
+	 * single request
+	 */
+	private static final int MAX_MATRIX_DESTINATIONS = 25;
+	/**
+	 * Whether the persistent geocode store and travel history are used, see
+	 * {@link #setBackend(RouteBackend, boolean)}
+	 */
+	private static volatile boolean persistentStoresEnabled = true;
+	/**
+	 * Predicts travel times of repeat trips from the travel history, available
+	 * once {@link #init(Context)} has been called
+	 */
+	private static TravelTimePredictor predictor = null;
 	/**
 	 * Logging tag
 	 */
 	private static final String TAG = "RouteInformation";
 
 	/**
-	 * Formats the given address, replacing whitespace with plus signs, allowing
-	 * the address to be used in web queries and external intent launches (such
-	 * as Maps or Navigation)
+	 * Estimates the travel time from the current location to the destination
+	 * address locally, without using the network
 	 * 
-	 * @param address
-	 *            address to format
-	 * @return formatted address
+	 * @param location
+	 *            current starting location
+	 * @param destination
+	 *            destination address
+	 * @param travelType
+	 *            transportation mode to use
+	 * @return the estimated travel time or null if the destination has not
+	 *         been geocoded before
 	 */
-	public static String formatAddress(final String address)
+	private static TravelTime estimateTravelTime(final Location location,
+			final String destination, final String travelType)
 	{
-		String formattedAddress = address;
-		// remove spaces
-		while (formattedAddress.indexOf("  ") != -1)
-			formattedAddress = formattedAddress.replace("  ", " ");
-		formattedAddress = formattedAddress.replace(" ", "+");
-		return formattedAddress;
+		final GeocodeStore store = getGeocodeStore();
+		if (store == null)
+			return null;
+		final GeoPoint destinationPoint = store.get(destination);
+		if (destinationPoint == null)
+			return null;
+		return new TravelTime(estimator.estimate(location, destinationPoint,
+				travelType), true);
 	}
 
 	/**
-	 * Gets a URLConnection to the given url. Note that it is up to the caller
-	 * to close the stream!
+	 * Queries the Directions service for the travel time from the current
+	 * location to the destination address with a given travel type
 	 * 
-	 * @param url
-	 *            URL to connect to
-	 * @return An open input stream to the url
+	 * @param location
+	 *            current starting location
+	 * @param destination
+	 *            destination address
+	 * @param travelType
+	 *            transportation mode to use
+	 * @return travel time to the destination in minutes or -1 if the travel
+	 *         time could not be retrieved or the circuit breaker is open
 	 */
-	private static InputStream getConnection(final String url)
+	private static int fetchDuration(final Location location,
+			final String destination, final String travelType)
 	{
+		if (!breaker.allowRequest())
+			return -1;
 		InputStream is = null;
+		int durationSec = 0;
 		try
 		{
-			final URLConnection conn = new URL(url).openConnection();
-			is = conn.getInputStream();
-		} catch (final MalformedURLException e)
+			is = backend.openDirections(location, destination, travelType);
+			durationSec = DirectionsParser.parseDuration(is);
+			// Only a response with a valid status shows the service is healthy
+			breaker.onSuccess();
+			if (durationSec < 0)
+				return -1;
+			recordTrip(location, destination, travelType, durationSec);
+		} catch (final Exception je)
 		{
-			Log.e(TAG, "getConnection: Invalid URL", e);
-		} catch (final IOException e)
+			breaker.onFailure();
+			Log.e(TAG, "getDuration Error " + je.getMessage(), je);
+			return -1;
+		} finally
 		{
-			Log.e(TAG, "getConnection: IO Error", e);
+			if (is != null)
+				try
+				{
+					is.close();
+				} catch (final IOException e)
+				{
+					Log.w(TAG, "Error closing InputStream", e);
+				}
 		}
-		return is;
+		return durationSec / 60;
 	}
 
 	/**
-	 * Gets the travel time from the current location to the destination address
-	 * with a given travel type
+	 * Queries the Distance Matrix service for the travel times from the
+	 * current location to each of the destination addresses with a given
+	 * travel type, using a single request
 	 * 
 	 * @param location
 	 *            current starting location
-	 * @param destination
-	 *            destination address
+	 * @param destinations
+	 *            destination addresses, no more than
+	 *            {@link #MAX_MATRIX_DESTINATIONS}
 	 * @param travelType
 	 *            transportation mode to use
-	 * @return travel time to the destination in minutes
+	 * @return travel time to each destination in minutes, in the same order as
+	 *         the destinations, with -1 for any travel time which could not be
+	 *         retrieved, or for all of them if the circuit breaker is open
 	 */
-	
-	// TODO - Move Networking to its own thread, in 3.0 and later:
-	// android.os.NetworkOnMainThreadException is triggered if you're triggering network calls on the
-	// main thread
-	public static int getDuration(final Location location,
-			final String destination, final String travelType)
+	private static int[] fetchDurations(final Location location,
+			final List<String> destinations, final String travelType)
 	{
+		final int[] durations = new int[destinations.size()];
+		Arrays.fill(durations, -1);
+		if (!breaker.allowRequest())
+			return durations;
 		InputStream is = null;
-		int durationSec = 0;
 		try
 		{
-			final String locationString = location.getLatitude() + ","
-					+ location.getLongitude();
-			final String from = formatAddress(locationString);
-			final String to = formatAddress(destination);
-			final StringBuffer urlString = new StringBuffer();
-			urlString
-					.append("http://maps.googleapis.com/maps/api/directions/json");
-			urlString.append("?origin=");// from
-			urlString.append(from);
-			urlString.append("&destination=");// to
-			urlString.append(to);
-			urlString.append("&sensor=true&mode=");
-			urlString.append(travelType);
-			final String url = urlString.toString();
-			Log.v(TAG, "getDuration URL: " + url);
-			is = getConnection(url);
-			if (is == null)
-				return 0;
-			final BufferedReader br = new BufferedReader(new InputStreamReader(
-					is));
-			final StringBuilder sb = new StringBuilder();
-			String line = null;
-			while ((line = br.readLine()) != null)
-				sb.append(line + "\n");
-			br.close();
-			final String jsontext = new String(sb.toString());
-			final JSONObject googleMapJSONEntireObject = (JSONObject) new JSONTokener(
-					jsontext).nextValue();
-			final JSONArray googleMapJSONRoutes = googleMapJSONEntireObject
-					.getJSONArray("routes");
-			if (googleMapJSONRoutes.length() <= 0)
-				return 0;
-			// use the first route
-			final JSONObject googleMapJSONRoute = googleMapJSONRoutes
-					.getJSONObject(0);
-			final JSONArray googleMapJSONLegs = googleMapJSONRoute
-					.getJSONArray("legs");
-			for (int i = 0; i < googleMapJSONLegs.length(); i++)
-			{
-				final JSONObject googleMapJSONLegObject = googleMapJSONLegs
-						.getJSONObject(i);
-				final JSONObject googleMapJSONDurationObject = googleMapJSONLegObject
-						.getJSONObject("duration");
-				durationSec += Integer.parseInt(googleMapJSONDurationObject
-						.getString("value"));
-			}
-		} catch (final Exception je)
+			is = backend.openDistanceMatrix(location, destinations,
+					travelType);
+			final int[] durationsSec = DistanceMatrixParser.parseDurations(is,
+					destinations.size());
+			// Only a response with a valid status shows the service is healthy
+			breaker.onSuccess();
+			for (int h = 0; h < durations.length; h++)
+				if (durationsSec[h] >= 0)
+				{
+					durations[h] = durationsSec[h] / 60;
+					recordTrip(location, destinations.get(h), travelType,
+							durationsSec[h]);
+				}
+		} catch (final Exception e)
 		{
-			Log.e(TAG, "getDuration Error " + je.getMessage(), je);
+			breaker.onFailure();
+			Log.e(TAG, "getDurations Error " + e.getMessage(), e);
 		} finally
 		{
 			if (is != null)
@@ -154,59 +230,35 @@ public class RouteInformation
 					Log.w(TAG, "Error closing InputStream", e);
 				}
 		}
-		return durationSec / 60;
+		return durations;
 	}
 
 	/**
-	 * 'Geocodes' the given address, producing a GeoPoint at the best guess
-	 * location
+	 * Queries the Geocoding service for the given address, producing a
+	 * GeoPoint at the best guess location
 	 * 
 	 * @param address
 	 *            address to geocode
-	 * @return GeoPoint representing the best guess lat/long for the address
+	 * @return GeoPoint representing the best guess lat/long for the address,
+	 *         or null if none was found or the circuit breaker is open
 	 */
-	public static GeoPoint getLocation(final String address)
+	private static GeoPoint fetchLocation(final String address)
 	{
+		if (!breaker.allowRequest())
+			return null;
 		InputStream is = null;
 		try
 		{
-			final String formattedAddress = formatAddress(address);
-			final StringBuffer urlString = new StringBuffer();
-			urlString
-					.append("http://maps.googleapis.com/maps/api/geocode/json");
-			urlString.append("?address=");
-			urlString.append(formattedAddress);
-			urlString.append("&sensor=false");
-			Log.v(TAG, "getLocation URL: " + urlString.toString());
-			final String url = urlString.toString();
-			is = getConnection(url);
-			if (is == null)
-				return null;
-			final BufferedReader br = new BufferedReader(new InputStreamReader(
-					is));
-			final StringBuilder sb = new StringBuilder();
-			String line = null;
-			while ((line = br.readLine()) != null)
-				sb.append(line + "\n");
-			br.close();
-			final String jsontext = new String(sb.toString());
-			final JSONObject googleMapJSONEntireObject = (JSONObject) new JSONTokener(
-					jsontext).nextValue();
-			final JSONArray googleMapJSONResultArray = (JSONArray) googleMapJSONEntireObject
-					.get("results");
-			if (googleMapJSONResultArray.length() == 0)
-			{
+			is = backend.openGeocode(address);
+			final GeoPoint point = GeocodeParser.parseLocation(is);
+			// Only a response with a valid status shows the service is healthy
+			breaker.onSuccess();
+			if (point == null)
 				Log.v(TAG, "No location found for " + address);
-				return null;
-			}
-			final JSONObject googleMapJSONLocation = googleMapJSONResultArray
-					.getJSONObject(0).getJSONObject("geometry")
-					.getJSONObject("location");
-			final double lat = googleMapJSONLocation.getDouble("lat");
-			final double lng = googleMapJSONLocation.getDouble("lng");
-			return new GeoPoint((int) (lat * 1E6), (int) (lng * 1E6));
+			return point;
 		} catch (final Exception e)
 		{
+			breaker.onFailure();
 			Log.e(TAG, "getLocation Error", e);
 		} finally
 		{
@@ -221,4 +273,523 @@ public class RouteInformation
 		}
 		return null;
 	}
+
+	/**
+	 * Formats the given address, replacing whitespace with plus signs, allowing
+	 * the address to be used in web queries and external intent launches (such
+	 * as Maps or Navigation)
+	 * 
+	 * @param address
+	 *            address to format
+	 * @return formatted address
+	 */
+	public static String formatAddress(final String address)
+	{
+		String formattedAddress = address;
+		// remove spaces
+		while (formattedAddress.indexOf("  ") != -1)
+			formattedAddress = formattedAddress.replace("  ", " ");
+		formattedAddress = formattedAddress.replace(" ", "+");
+		return formattedAddress;
+	}
+
+	/**
+	 * Gets the travel time from the current location to the destination address
+	 * with a given travel type. See
+	 * {@link #getTravelTime(Location, String, String)} for details.
+	 * 
+	 * @param location
+	 *            current starting location
+	 * @param destination
+	 *            destination address
+	 * @param travelType
+	 *            transportation mode to use
+	 * @return travel time to the destination in minutes, or 0 if it could be
+	 *         neither retrieved nor estimated
+	 */
+	public static int getDuration(final Location location,
+			final String destination, final String travelType)
+	{
+		final TravelTime travelTime = getTravelTime(location, destination,
+				travelType);
+		return travelTime == null ? 0 : travelTime.getMinutes();
+	}
+
+	/**
+	 * Gets the backend the maps service responses are requested from
+	 * 
+	 * @return the current backend
+	 */
+	public static RouteBackend getBackend()
+	{
+		return backend;
+	}
+
+	/**
+	 * Gets the location of an address only if it was geocoded recently enough
+	 * to still be held in memory, without blocking on the database or the
+	 * network. Safe to call on the main thread.
+	 * 
+	 * @param address
+	 *            address to look up
+	 * @return GeoPoint representing the best guess lat/long for the address,
+	 *         or null if it is not held in memory
+	 */
+	public static GeoPoint getCachedLocation(final String address)
+	{
+		final GeocodeStore store = getGeocodeStore();
+		return store == null ? null : store.peek(address);
+	}
+
+	/**
+	 * Gets the cache of recently computed travel times, allowing its time to
+	 * live to be adjusted and its hit/miss counts to be inspected
+	 * 
+	 * @return the travel time cache
+	 */
+	public static TravelTimeCache getDurationCache()
+	{
+		return durationCache;
+	}
+
+	/**
+	 * Gets the travel times from the current location to each of the
+	 * destination addresses with a given travel type. Travel times already in
+	 * the cache are served from it and the rest are retrieved together in as
+	 * few Distance Matrix requests as possible, with the results added to the
+	 * cache. Blocks on the network, so this should not be called on the main
+	 * thread.
+	 * 
+	 * @param location
+	 *            current starting location
+	 * @param destinations
+	 *            destination addresses
+	 * @param travelType
+	 *            transportation mode to use
+	 * @return travel time to each destination in minutes, in the same order as
+	 *         the destinations, with -1 for any travel time which could not be
+	 *         retrieved
+	 */
+	public static int[] getDurations(final Location location,
+			final List<String> destinations, final String travelType)
+	{
+		final int[] durations = new int[destinations.size()];
+		Arrays.fill(durations, -1);
+		if (location == null)
+			return durations;
+		final ArrayList<String> uncachedDestinations = new ArrayList<String>();
+		final ArrayList<Integer> uncachedIndexes = new ArrayList<Integer>();
+		for (int h = 0; h < durations.length; h++)
+		{
+			final String destination = destinations.get(h);
+			final Integer cachedDuration = durationCache.get(
+					TravelTimeCache.getKey(destination, travelType), travelType,
+					location);
+			if (cachedDuration != null)
+				durations[h] = cachedDuration;
+			else
+			{
+				uncachedDestinations.add(destination);
+				uncachedIndexes.add(h);
+			}
+		}
+		for (int start = 0; start < uncachedDestinations.size(); start += MAX_MATRIX_DESTINATIONS)
+		{
+			final int end = Math.min(start + MAX_MATRIX_DESTINATIONS,
+					uncachedDestinations.size());
+			final int[] fetchedDurations = fetchDurations(location,
+					uncachedDestinations.subList(start, end), travelType);
+			for (int h = 0; h < fetchedDurations.length; h++)
+			{
+				if (fetchedDurations[h] < 0)
+					continue;
+				final String destination = uncachedDestinations.get(start + h);
+				durations[uncachedIndexes.get(start + h)] = fetchedDurations[h];
+				durationCache.put(TravelTimeCache.getKey(destination, travelType),
+						location, fetchedDurations[h]);
+			}
+		}
+		return durations;
+	}
+
+	/**
+	 * Gets the persistent geocode store, unless it is not available or
+	 * bypassed
+	 * 
+	 * @return the geocode store or null
+	 */
+	private static GeocodeStore getGeocodeStore()
+	{
+		return persistentStoresEnabled ? geocodeStore : null;
+	}
+
+	/**
+	 * 'Geocodes' the given address, producing a GeoPoint at the best guess
+	 * location. Addresses which have been geocoded before are read from the
+	 * persistent geocode store rather than the network, and concurrent requests
+	 * for the same address share a single network request.
+	 * 
+	 * @param address
+	 *            address to geocode
+	 * @return GeoPoint representing the best guess lat/long for the address
+	 * @see #getLocationAsync(String, Handler, RoutingExecutor.Callback)
+	 */
+	public static GeoPoint getLocation(final String address)
+	{
+		final GeocodeStore store = getGeocodeStore();
+		if (store != null)
+		{
+			final GeoPoint storedPoint = store.get(address);
+			if (storedPoint != null)
+				return storedPoint;
+		}
+		return locationFlight.execute(
+				TravelTimeCache.normalizeDestination(address),
+				new SingleFlight.Fetcher<GeoPoint>()
+				{
+					@Override
+					public GeoPoint fetch()
+					{
+						final GeoPoint point = fetchLocation(address);
+						if (point != null && store != null)
+							store.put(address, point);
+						return point;
+					}
+				});
+	}
+
+	/**
+	 * Asynchronously 'geocodes' the given address, delivering the best guess
+	 * location on the given Handler. Use this rather than
+	 * {@link #getLocation(String)} on the main thread.
+	 * 
+	 * @param address
+	 *            address to geocode
+	 * @param handler
+	 *            Handler whose thread the callback is called on
+	 * @param callback
+	 *            callback receiving the GeoPoint representing the best guess
+	 *            lat/long for the address, or null if none was found
+	 * @return a Future which can be used to cancel the request
+	 */
+	public static Future<GeoPoint> getLocationAsync(final String address,
+			final Handler handler,
+			final RoutingExecutor.Callback<GeoPoint> callback)
+	{
+		return RoutingExecutor.submit(new Callable<GeoPoint>()
+		{
+			@Override
+			public GeoPoint call()
+			{
+				return getLocation(address);
+			}
+		}, handler, callback);
+	}
+
+	/**
+	 * 'Geocodes' a batch of addresses, running up to maxConcurrency requests
+	 * in parallel. Blocks until every address has been geocoded, so this
+	 * should not be called on the main thread.
+	 * 
+	 * @param addresses
+	 *            addresses to geocode
+	 * @param maxConcurrency
+	 *            maximum number of geocoding requests to run at once
+	 * @return GeoPoints representing the best guess lat/long for each address,
+	 *         in the same order as the addresses, with null for any address
+	 *         which could not be geocoded
+	 */
+	public static GeoPoint[] getLocations(final List<String> addresses,
+			final int maxConcurrency)
+	{
+		return BatchGeocoder.geocode(addresses, maxConcurrency, null);
+	}
+
+	/**
+	 * 'Geocodes' a batch of addresses, running up to maxConcurrency requests
+	 * in parallel and reporting each address to the listener as soon as it
+	 * has been geocoded, so that results can be shown progressively. Blocks
+	 * until every address has been geocoded, so this should not be called on
+	 * the main thread.
+	 * 
+	 * @param addresses
+	 *            addresses to geocode
+	 * @param maxConcurrency
+	 *            maximum number of geocoding requests to run at once
+	 * @param listener
+	 *            listener notified of each address once geocoded, on the
+	 *            geocoding threads
+	 * @return GeoPoints representing the best guess lat/long for each address,
+	 *         in the same order as the addresses, with null for any address
+	 *         which could not be geocoded
+	 */
+	public static GeoPoint[] getLocations(final List<String> addresses,
+			final int maxConcurrency, final LocationListener listener)
+	{
+		return BatchGeocoder.geocode(addresses, maxConcurrency, listener);
+	}
+
+	/**
+	 * Gets the predictor of repeat trips, unless it is not available or the
+	 * travel history it predicts from is bypassed
+	 * 
+	 * @return the predictor or null
+	 */
+	private static TravelTimePredictor getPredictor()
+	{
+		return persistentStoresEnabled ? predictor : null;
+	}
+
+	/**
+	 * Gets the travel time from the current location to the destination address
+	 * with a given travel type. Recently computed travel times are served from
+	 * the cache as long as the device has not moved too far from where they
+	 * were computed (see {@link TravelTimeCache#getMovementThreshold(String)}),
+	 * and repeat trips with a reliable prediction from the travel history (see
+	 * {@link TravelTimePredictor.Prediction#isReliable()}) are estimated from
+	 * it, rather than using the network. Concurrent requests for the same trip
+	 * share a single network request. If the network is unavailable, the request
+	 * fails or the maps services have been failing (so requests fail fast
+	 * until they recover), the travel time is estimated from the travel
+	 * history or, failing that, locally from the destination's stored geocode.
+	 * 
+	 * @param location
+	 *            current starting location
+	 * @param destination
+	 *            destination address
+	 * @param travelType
+	 *            transportation mode to use
+	 * @return travel time to the destination or null if it could be neither
+	 *         retrieved nor estimated
+	 * @see #getTravelTimeAsync(Location, String, String, Handler,
+	 *      RoutingExecutor.Callback)
+	 */
+	public static TravelTime getTravelTime(final Location location,
+			final String destination, final String travelType)
+	{
+		if (location == null)
+			return null;
+		final String key = TravelTimeCache.getKey(destination, travelType);
+		final Integer cachedDuration = durationCache.get(key, travelType,
+				location);
+		if (cachedDuration != null)
+			return new TravelTime(cachedDuration, false);
+		final TravelTimePredictor currentPredictor = getPredictor();
+		final TravelTimePredictor.Prediction prediction = currentPredictor == null ? null
+				: currentPredictor.predict(location, destination, travelType);
+		// Predictions are not cached so that the routing service is asked
+		// again as soon as the prediction's newest sample becomes stale
+		if (prediction != null && prediction.isReliable())
+			return new TravelTime(prediction.getMinutes(), true);
+		if (isNetworkAvailable())
+		{
+			final Integer duration = durationFlight.execute(key,
+					new SingleFlight.Fetcher<Integer>()
+					{
+						@Override
+						public Integer fetch()
+						{
+							final int fetchedDuration = fetchDuration(location,
+									destination, travelType);
+							// Failures are not cached so that the next call
+							// retries the network
+							if (fetchedDuration >= 0)
+								durationCache.put(key, location,
+										fetchedDuration);
+							return fetchedDuration;
+						}
+					});
+			if (duration != null && duration >= 0)
+				return new TravelTime(duration, false);
+		}
+		if (prediction != null)
+			return new TravelTime(prediction.getMinutes(), true);
+		return estimateTravelTime(location, destination, travelType);
+	}
+
+	/**
+	 * Asynchronously gets the travel time from the current location to the
+	 * destination address with a given travel type, delivering the result on
+	 * the given Handler. Use this rather than
+	 * {@link #getTravelTime(Location, String, String)} on the main thread.
+	 * 
+	 * @param location
+	 *            current starting location
+	 * @param destination
+	 *            destination address
+	 * @param travelType
+	 *            transportation mode to use
+	 * @param handler
+	 *            Handler whose thread the callback is called on
+	 * @param callback
+	 *            callback receiving the travel time, or null if it could be
+	 *            neither retrieved nor estimated
+	 * @return a Future which can be used to cancel the request
+	 */
+	public static Future<TravelTime> getTravelTimeAsync(
+			final Location location, final String destination,
+			final String travelType, final Handler handler,
+			final RoutingExecutor.Callback<TravelTime> callback)
+	{
+		return RoutingExecutor.submit(new Callable<TravelTime>()
+		{
+			@Override
+			public TravelTime call()
+			{
+				return getTravelTime(location, destination, travelType);
+			}
+		}, handler, callback);
+	}
+
+	/**
+	 * Initializes the persistent stores backing RouteInformation. Safe to call
+	 * multiple times, such as from each Activity or Service which uses
+	 * RouteInformation.
+	 * 
+	 * @param context
+	 *            context used to open the persistent stores
+	 */
+	public static synchronized void init(final Context context)
+	{
+		if (geocodeStore != null)
+			return;
+		final Context appContext = context.getApplicationContext();
+		geocodeStore = GeocodeStore.getInstance(appContext);
+		connectivityManager = (ConnectivityManager) appContext
+				.getSystemService(Context.CONNECTIVITY_SERVICE);
+		estimator.setPreferences(appContext.getSharedPreferences(
+				ESTIMATOR_PREF, 0));
+		predictor = new TravelTimePredictor(
+				TravelHistory.getInstance(appContext));
+	}
+
+	/**
+	 * Whether a network connection is available. Assumes it is if
+	 * {@link #init(Context)} has not been called.
+	 * 
+	 * @return false if the device is known to have no network connection
+	 */
+	private static boolean isNetworkAvailable()
+	{
+		final ConnectivityManager manager = connectivityManager;
+		if (manager == null)
+			return true;
+		final NetworkInfo networkInfo = manager.getActiveNetworkInfo();
+		return networkInfo != null && networkInfo.isConnected();
+	}
+
+	/**
+	 * Replaces the backend the maps service responses are requested from,
+	 * still using the persistent geocode store and travel history. Clears the
+	 * travel time cache and resets the circuit breaker so that no earlier
+	 * results or failures carry over.
+	 * 
+	 * @param newBackend
+	 *            backend to use
+	 */
+	public static void setBackend(final RouteBackend newBackend)
+	{
+		setBackend(newBackend, true);
+	}
+
+	/**
+	 * Replaces the backend the maps service responses are requested from, such
+	 * as with a {@link HttpRouteBackend} pointing at the test project's
+	 * StubRouteServer. Clears the travel time cache and resets the circuit
+	 * breaker so that no earlier results or failures carry over. The
+	 * persistent geocode store and travel history can be bypassed, neither
+	 * answering nor recording anything, so that results only depend on the
+	 * backend and runs against a stub are reproducible. Bypassing the geocode
+	 * store also bypasses the local estimator, which needs the destination's
+	 * stored geocode.
+	 * 
+	 * @param newBackend
+	 *            backend to use
+	 * @param usePersistentStores
+	 *            whether to use the persistent geocode store and travel
+	 *            history
+	 */
+	public static void setBackend(final RouteBackend newBackend,
+			final boolean usePersistentStores)
+	{
+		backend = newBackend;
+		persistentStoresEnabled = usePersistentStores;
+		durationCache.clear();
+		breaker.reset();
+	}
+
+	/**
+	 * Retrieves the travel times from the current location to each of the
+	 * destination addresses with a given travel type, regardless of whether
+	 * they are already cached, and stores them in the cache so later calls to
+	 * {@link #getTravelTime(Location, String, String)} are answered without
+	 * waiting on the network. Blocks on the network, so this should not be
+	 * called on the main thread.
+	 * 
+	 * @param location
+	 *            current starting location
+	 * @param destinations
+	 *            destination addresses
+	 * @param ttls
+	 *            how long each destination's travel time should stay cached,
+	 *            in milliseconds
+	 * @param travelType
+	 *            transportation mode to use
+	 * @return whether each destination's travel time was retrieved, in the
+	 *         same order as the destinations
+	 */
+	public static boolean[] prefetchDurations(final Location location,
+			final List<String> destinations, final long[] ttls,
+			final String travelType)
+	{
+		final boolean[] fetched = new boolean[destinations.size()];
+		if (location == null || !isNetworkAvailable())
+			return fetched;
+		for (int start = 0; start < destinations.size(); start += MAX_MATRIX_DESTINATIONS)
+		{
+			final int end = Math.min(start + MAX_MATRIX_DESTINATIONS,
+					destinations.size());
+			final int[] fetchedDurations = fetchDurations(location,
+					destinations.subList(start, end), travelType);
+			for (int h = 0; h < fetchedDurations.length; h++)
+				if (fetchedDurations[h] >= 0)
+				{
+					durationCache.put(TravelTimeCache.getKey(
+							destinations.get(start + h), travelType), location,
+							fetchedDurations[h], ttls[start + h]);
+					fetched[start + h] = true;
+				}
+		}
+		return fetched;
+	}
+
+	/**
+	 * Records a travel time returned by the routing service in the travel
+	 * history, if available, and calibrates the local estimator against it
+	 * if the destination has been geocoded before
+	 * 
+	 * @param location
+	 *            starting location of the trip
+	 * @param destination
+	 *            destination address
+	 * @param travelType
+	 *            travel type of the trip
+	 * @param durationSec
+	 *            travel time of the trip in seconds
+	 */
+	private static void recordTrip(final Location location,
+			final String destination, final String travelType,
+			final int durationSec)
+	{
+		final TravelTimePredictor currentPredictor = getPredictor();
+		if (currentPredictor != null)
+			currentPredictor.record(location, destination, travelType,
+					durationSec);
+		final GeocodeStore store = getGeocodeStore();
+		final GeoPoint destinationPoint = store == null ? null : store
+				.get(destination);
+		if (destinationPoint != null)
+			estimator.calibrate(location, destinationPoint, travelType,
+					durationSec);
+	}
 }
@@ -0,0 +1,198 @@
+package com.github.whentoleave.maps;
+
+/**
+ * Multi-resolution view of a {@link Route}, giving the points needed to draw
+ * it at a given map zoom level. Each point's importance is computed once
+ * using Douglas-Peucker simplification; the points for a zoom band are those
+ * whose removal would move the drawn line by more than
+ * {@link #TOLERANCE_PIXELS} at the most detailed zoom level of the band.
+ * Levels are built on first use and cached.
+ */
+public class RouteLevels
+{
+	/**
+	 * Number of zoom levels sharing one simplified level
+	 */
+	private static final int BAND_WIDTH = 2;
+	/**
+	 * Highest map zoom level
+	 */
+	private static final int MAX_ZOOM = 22;
+	/**
+	 * Maximum distance, in screen pixels, a simplified line may deviate from
+	 * the full route
+	 */
+	private static final float TOLERANCE_PIXELS = 1;
+
+	/**
+	 * Computes the Douglas-Peucker importance of each point: the tolerance
+	 * below which the point is kept. Importance never exceeds that of the
+	 * point which split its segment, so the points kept for a smaller
+	 * tolerance are always a superset of those kept for a larger one.
+	 * 
+	 * @param route
+	 *            route to compute the importance of the points of
+	 * @param xScale
+	 *            scale applied to longitudes so that distances are isotropic
+	 * @return importance of each point in latitude microdegrees
+	 */
+	private static float[] computeImportance(final Route route,
+			final double xScale)
+	{
+		final int count = route.getPointCount();
+		final float[] importance = new float[count];
+		if (count == 0)
+			return importance;
+		importance[0] = Float.MAX_VALUE;
+		importance[count - 1] = Float.MAX_VALUE;
+		// Explicit stack of (first, last, parent importance) segments, as
+		// long routes would overflow the call stack
+		int[] segments = new int[64];
+		float[] parents = new float[32];
+		segments[0] = 0;
+		segments[1] = count - 1;
+		parents[0] = Float.MAX_VALUE;
+		int depth = 1;
+		while (depth > 0)
+		{
+			depth--;
+			final int first = segments[depth * 2];
+			final int last = segments[depth * 2 + 1];
+			final float parent = parents[depth];
+			if (last - first < 2)
+				continue;
+			final double x1 = route.getLongitudeE6(first) * xScale;
+			final double y1 = route.getLatitudeE6(first);
+			final double dx = route.getLongitudeE6(last) * xScale - x1;
+			final double dy = route.getLatitudeE6(last) - y1;
+			final double lengthSquared = dx * dx + dy * dy;
+			double maxDistance = -1;
+			int split = first + 1;
+			for (int h = first + 1; h < last; h++)
+			{
+				final double px = route.getLongitudeE6(h) * xScale - x1;
+				final double py = route.getLatitudeE6(h) - y1;
+				final double distance;
+				if (lengthSquared == 0)
+					distance = Math.sqrt(px * px + py * py);
+				else
+				{
+					// Distance to the segment, not just the infinite line
+					final double t = Math.max(0,
+							Math.min(1, (px * dx + py * dy) / lengthSquared));
+					final double ex = px - t * dx;
+					final double ey = py - t * dy;
+					distance = Math.sqrt(ex * ex + ey * ey);
+				}
+				if (distance > maxDistance)
+				{
+					maxDistance = distance;
+					split = h;
+				}
+			}
+			final float splitImportance = (float) Math.min(parent, maxDistance);
+			importance[split] = splitImportance;
+			if (depth + 2 > parents.length)
+			{
+				final int[] newSegments = new int[segments.length * 2];
+				final float[] newParents = new float[parents.length * 2];
+				System.arraycopy(segments, 0, newSegments, 0, depth * 2);
+				System.arraycopy(parents, 0, newParents, 0, depth);
+				segments = newSegments;
+				parents = newParents;
+			}
+			segments[depth * 2] = first;
+			segments[depth * 2 + 1] = split;
+			parents[depth] = splitImportance;
+			depth++;
+			segments[depth * 2] = split;
+			segments[depth * 2 + 1] = last;
+			parents[depth] = splitImportance;
+			depth++;
+		}
+		return importance;
+	}
+
+	/**
+	 * Importance of each point of the route, in latitude microdegrees
+	 */
+	private final float[] mImportance;
+	/**
+	 * Indexes of the points kept in each zoom band, built on first use
+	 */
+	private final int[][] mLevels = new int[RouteLevels.MAX_ZOOM
+			/ RouteLevels.BAND_WIDTH + 1][];
+	/**
+	 * Microdegrees of latitude covered by one pixel at zoom level 0 at the
+	 * route's latitude
+	 */
+	private final double mMicrodegreesPerPixel;
+	/**
+	 * The full route
+	 */
+	private final Route mRoute;
+
+	/**
+	 * Creates the levels of the given route, computing the importance of each
+	 * of its points
+	 * 
+	 * @param route
+	 *            route to simplify
+	 */
+	public RouteLevels(final Route route)
+	{
+		mRoute = route;
+		final int count = route.getPointCount();
+		double latitudeSum = 0;
+		for (int h = 0; h < count; h++)
+			latitudeSum += route.getLatitudeE6(h);
+		final double cosLatitude = Math.cos(Math.toRadians(count == 0 ? 0
+				: latitudeSum / count / 1E6));
+		// In the Mercator projection a pixel spans the same longitude
+		// everywhere, and cos(latitude) times that in latitude
+		mMicrodegreesPerPixel = 360E6 / 256 * cosLatitude;
+		mImportance = RouteLevels.computeImportance(route, cosLatitude);
+	}
+
+	/**
+	 * Gets the indexes of the points of the route needed to draw it at the
+	 * given zoom level
+	 * 
+	 * @param zoomLevel
+	 *            map zoom level, as returned by MapView.getZoomLevel()
+	 * @return indexes of the points to draw, in order
+	 */
+	public synchronized int[] getIndexes(final int zoomLevel)
+	{
+		final int band = Math.max(0, Math.min(zoomLevel, RouteLevels.MAX_ZOOM))
+				/ RouteLevels.BAND_WIDTH;
+		if (mLevels[band] != null)
+			return mLevels[band];
+		// Use the tolerance of the most detailed zoom level in the band
+		final int bandZoom = Math.min(RouteLevels.MAX_ZOOM, band
+				* RouteLevels.BAND_WIDTH + RouteLevels.BAND_WIDTH - 1);
+		final float tolerance = (float) (RouteLevels.TOLERANCE_PIXELS
+				* mMicrodegreesPerPixel / (1 << bandZoom));
+		int keptCount = 0;
+		for (int h = 0; h < mImportance.length; h++)
+			if (mImportance[h] > tolerance)
+				keptCount++;
+		final int[] indexes = new int[keptCount];
+		int index = 0;
+		for (int h = 0; h < mImportance.length; h++)
+			if (mImportance[h] > tolerance)
+				indexes[index++] = h;
+		mLevels[band] = indexes;
+		return indexes;
+	}
+
+	/**
+	 * Gets the full route
+	 * 
+	 * @return the route these are the levels of
+	 */
+	public Route getRoute()
+	{
+		return mRoute;
+	}
+}
@@ -2,9 +2,6 @@ package com.github.whentoleave.maps;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -17,8 +14,6 @@ import org.xml.sax.helpers.DefaultHandler;
 import android.location.Location;
 import android.util.Log;
 
-import com.google.android.maps.GeoPoint;
-
 /**
  * Handles the parsing of a KML file representing a route<br />
  * <br />
@@ -63,51 +58,126 @@ class KMLHandler extends DefaultHandler
 	 */
 	private boolean isRoute;
 	/**
-	 * The content of the current element
+	 * Index of the coordinate component currently being parsed: 0 for
+	 * longitude, 1 for latitude and 2 or more for altitude (ignored)
+	 */
+	private int mComponent = 0;
+	/**
+	 * The content of the current element, other than route coordinates which
+	 * are parsed as they are read
+	 */
+	private final StringBuilder mElementContent = new StringBuilder();
+	/**
+	 * Number of digits read after the decimal point of the current number, or
+	 * -1 if no decimal point has been read
+	 */
+	private int mFractionDigits = -1;
+	/**
+	 * Whether the current number has any digits yet
+	 */
+	private boolean mHasDigits = false;
+	/**
+	 * Whether we are currently in the 'coordinates' tag of the route
+	 */
+	private boolean mInCoordinates = false;
+	/**
+	 * Whether the current number is negative
+	 */
+	private boolean mNegative = false;
+	/**
+	 * Latitude of the current coordinate tuple, in microdegrees
 	 */
-	private String mElementContent;
+	private int mPendingLatE6 = 0;
+	/**
+	 * Longitude of the current coordinate tuple, in microdegrees
+	 */
+	private int mPendingLonE6 = 0;
 	/**
 	 * Route which serves as the output of this Handler
 	 */
 	final Route mRoute = new Route();
+	/**
+	 * Absolute value of the current number, scaled by 10^mFractionDigits
+	 */
+	private long mValue = 0;
+
+	/**
+	 * Appends the current coordinate tuple to the route if it has both a
+	 * longitude and a latitude, and starts a new tuple
+	 */
+	private void addPoint()
+	{
+		endNumber();
+		if (mComponent >= 1)
+			mRoute.addPoint(mPendingLatE6, mPendingLonE6);
+		mComponent = 0;
+	}
 
 	@Override
 	public void characters(final char[] ch, final int start, final int length)
 			throws SAXException
 	{
-		final String chars = new String(ch, start, length).trim();
-		mElementContent = mElementContent.concat(chars);
+		if (!mInCoordinates)
+		{
+			mElementContent.append(ch, start, length);
+			return;
+		}
+		// Coordinates are 'longitude,latitude[,altitude]' tuples separated by
+		// whitespace, parsed straight into the route's microdegree arrays.
+		// Tuples and numbers may be split across calls.
+		final int end = start + length;
+		for (int h = start; h < end; h++)
+		{
+			final char c = ch[h];
+			if (c >= '0' && c <= '9')
+			{
+				// Digits beyond microdegree precision are truncated
+				if (mFractionDigits < 6)
+				{
+					mValue = mValue * 10 + c - '0';
+					if (mFractionDigits >= 0)
+						mFractionDigits++;
+				}
+				mHasDigits = true;
+			}
+			else if (c == '.')
+				mFractionDigits = 0;
+			else if (c == '-')
+				mNegative = true;
+			else if (c == ',')
+			{
+				endNumber();
+				mComponent++;
+			}
+			else if (Character.isWhitespace(c))
+				addPoint();
+		}
 	}
 
 	@Override
 	public void endElement(final String uri, final String localName,
 			final String name) throws SAXException
 	{
-		if (mElementContent.length() > 0)
-			if (localName.equalsIgnoreCase("name"))
-			{
-				if (isPlacemark)
-					isRoute = mElementContent.equalsIgnoreCase("Route");
-				else
-					mRoute.mName = mElementContent;
-			}
-			else if (localName.equalsIgnoreCase("description") && isPlacemark
-					&& isRoute)
-				mRoute.mDescription = KMLHandler.cleanup(mElementContent);
-			else if (localName.equalsIgnoreCase("coordinates") && isPlacemark
-					&& isRoute)
-			{
-				final String[] coordinatesParsed = mElementContent.split(" ");
-				for (final String coordinatePair : coordinatesParsed)
+		if (mInCoordinates)
+		{
+			addPoint();
+			mInCoordinates = false;
+		}
+		else if (localName.equalsIgnoreCase("name")
+				|| localName.equalsIgnoreCase("description"))
+		{
+			final String content = mElementContent.toString().trim();
+			if (content.length() > 0)
+				if (localName.equalsIgnoreCase("name"))
 				{
-					final String[] xyParsed = coordinatePair.split(",");
-					// Convert the lat and long to Microseconds format, used by
-					// GeoPoint
-					final int lonE6 = (int) (Double.parseDouble(xyParsed[0]) * 1e6);
-					final int latE6 = (int) (Double.parseDouble(xyParsed[1]) * 1e6);
-					mRoute.mRoute.add(new GeoPoint(latE6, lonE6));
+					if (isPlacemark)
+						isRoute = content.equalsIgnoreCase("Route");
+					else
+						mRoute.mName = content;
 				}
-			}
+				else if (isPlacemark && isRoute)
+					mRoute.mDescription = KMLHandler.cleanup(content);
+		}
 		if (localName.equalsIgnoreCase("Placemark"))
 		{
 			isPlacemark = false;
@@ -115,13 +185,38 @@ class KMLHandler extends DefaultHandler
 		}
 	}
 
+	/**
+	 * Stores the number currently being parsed as the current coordinate
+	 * component, if there is one
+	 */
+	private void endNumber()
+	{
+		if (mHasDigits)
+		{
+			long valueE6 = mValue;
+			for (int h = Math.max(mFractionDigits, 0); h < 6; h++)
+				valueE6 *= 10;
+			final int signedValueE6 = (int) (mNegative ? -valueE6 : valueE6);
+			if (mComponent == 0)
+				mPendingLonE6 = signedValueE6;
+			else if (mComponent == 1)
+				mPendingLatE6 = signedValueE6;
+		}
+		mValue = 0;
+		mFractionDigits = -1;
+		mHasDigits = false;
+		mNegative = false;
+	}
+
 	@Override
 	public void startElement(final String uri, final String localName,
 			final String name, final Attributes attributes) throws SAXException
 	{
 		if (localName.equalsIgnoreCase("Placemark"))
 			isPlacemark = true;
-		mElementContent = new String();
+		mInCoordinates = localName.equalsIgnoreCase("coordinates")
+				&& isPlacemark && isRoute;
+		mElementContent.setLength(0);
 	}
 }
 
@@ -151,26 +246,10 @@ public class RouteProvider
 	 */
 	public static Route getRoute(final Location start, final String destination)
 	{
-		final StringBuffer urlString = new StringBuffer();
-		urlString.append("http://maps.google.com/maps?f=d&hl=en");
-		urlString.append("&saddr=");// from
-		urlString.append(Double.toString(start.getLatitude()));
-		urlString.append(",");
-		urlString.append(Double.toString(start.getLongitude()));
-		urlString.append("&daddr=");// to
-		urlString.append(RouteInformation.formatAddress(destination));
-		urlString.append("&ie=UTF8&0&om=0&output=kml");
-		final String url = urlString.toString();
-		Log.v(RouteProvider.TAG, "URL: " + url);
 		InputStream is = null;
 		try
 		{
-			final URLConnection conn = new URL(url).openConnection();
-			is = conn.getInputStream();
-		} catch (final MalformedURLException e)
-		{
-			Log.e(RouteProvider.TAG, "getConnection: Invalid URL", e);
-			return null;
+			is = RouteInformation.getBackend().openRoute(start, destination);
 		} catch (final IOException e)
 		{
 			Log.e(RouteProvider.TAG, "getConnection: IO Error", e);
@@ -204,6 +283,7 @@ public class RouteProvider
 				Log.w(RouteProvider.TAG, "Error closing InputStream", e);
 			}
 		}
+		handler.mRoute.trimToSize();
 		return handler.mRoute;
 	}
 }
@@ -0,0 +1,222 @@
+package com.github.whentoleave.maps;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Bounded pool of background threads used to run blocking routing and
+ * geocoding requests off of the main thread. Results are delivered to a
+ * {@link Callback} on the caller's {@link Handler}.
+ */
+public class RoutingExecutor
+{
+	/**
+	 * Receives the result of an asynchronous request
+	 * 
+	 * @param <V>
+	 *            type of the result
+	 */
+	public interface Callback<V>
+	{
+		/**
+		 * Called on the requesting Handler's thread once the request completes.
+		 * Not called if the request was cancelled.
+		 * 
+		 * @param result
+		 *            result of the request, or null if the request failed or
+		 *            was dropped from a full queue
+		 */
+		void onResult(V result);
+	}
+
+	/**
+	 * A request which posts its result to a Handler once complete
+	 * 
+	 * @param <V>
+	 *            type of the result
+	 */
+	private static class RoutingTask<V> extends FutureTask<V>
+	{
+		/**
+		 * Callback to deliver the result to
+		 */
+		private final Callback<V> mCallback;
+		/**
+		 * Whether the request was cancelled by its owner
+		 */
+		private volatile boolean mCancelled = false;
+		/**
+		 * Whether the request was dropped from a full queue, which its owner
+		 * is told about as a failure
+		 */
+		private volatile boolean mDropped = false;
+		/**
+		 * Handler to deliver the result on
+		 */
+		private final Handler mHandler;
+
+		/**
+		 * Creates a new RoutingTask
+		 * 
+		 * @param callable
+		 *            request to run
+		 * @param handler
+		 *            Handler to deliver the result on
+		 * @param callback
+		 *            callback to deliver the result to
+		 */
+		RoutingTask(final Callable<V> callable, final Handler handler,
+				final Callback<V> callback)
+		{
+			super(callable);
+			mHandler = handler;
+			mCallback = callback;
+		}
+
+		@Override
+		public boolean cancel(final boolean mayInterruptIfRunning)
+		{
+			mCancelled = true;
+			return super.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		protected void done()
+		{
+			if (mCancelled || mCallback == null)
+				return;
+			mHandler.post(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					// The request may have been cancelled while the result was
+					// waiting to be delivered
+					if (mCancelled)
+						return;
+					if (mDropped)
+					{
+						Log.w(RoutingExecutor.TAG, "Routing request dropped");
+						mCallback.onResult(null);
+						return;
+					}
+					V result = null;
+					try
+					{
+						result = get();
+					} catch (final InterruptedException e)
+					{
+						Log.w(RoutingExecutor.TAG, "Interrupted delivering result",
+								e);
+					} catch (final ExecutionException e)
+					{
+						Log.e(RoutingExecutor.TAG, "Routing request failed",
+								e.getCause());
+					}
+					mCallback.onResult(result);
+				}
+			});
+		}
+
+		/**
+		 * Cancels the request to make room in a full queue, still delivering a
+		 * null result so that its owner learns it failed
+		 */
+		void drop()
+		{
+			mDropped = true;
+			super.cancel(false);
+		}
+	}
+
+	/**
+	 * Pool running the requests. When the queue is full the oldest waiting
+	 * request is dropped to make room, as newer requests supersede it.
+	 */
+	private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			RoutingExecutor.POOL_SIZE, RoutingExecutor.POOL_SIZE, 30,
+			TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+					RoutingExecutor.QUEUE_SIZE), new ThreadFactory()
+			{
+				private final AtomicInteger mCount = new AtomicInteger(1);
+
+				@Override
+				public Thread newThread(final Runnable runnable)
+				{
+					return new Thread(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							runnable.run();
+						}
+					}, "Routing #" + mCount.getAndIncrement());
+				}
+			}, new RejectedExecutionHandler()
+			{
+				@Override
+				public void rejectedExecution(final Runnable runnable,
+						final ThreadPoolExecutor pool)
+				{
+					if (pool.isShutdown())
+						return;
+					final Runnable oldest = pool.getQueue().poll();
+					if (oldest instanceof RoutingTask<?>)
+						((RoutingTask<?>) oldest).drop();
+					else if (oldest instanceof Future<?>)
+						((Future<?>) oldest).cancel(false);
+					pool.execute(runnable);
+				}
+			});
+	/**
+	 * Number of worker threads
+	 */
+	private static final int POOL_SIZE = 3;
+	/**
+	 * Maximum number of requests waiting for a worker thread
+	 */
+	private static final int QUEUE_SIZE = 32;
+	/**
+	 * Logging tag
+	 */
+	private static final String TAG = "RoutingExecutor";
+
+	static
+	{
+		RoutingExecutor.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Runs the given request on a background thread
+	 * 
+	 * @param callable
+	 *            request to run
+	 * @param handler
+	 *            Handler whose thread the result is delivered on
+	 * @param callback
+	 *            callback to deliver the result to, or null to ignore the result
+	 * @return a Future which can be used to cancel the request or wait for its
+	 *         result
+	 */
+	public static <V> Future<V> submit(final Callable<V> callable,
+			final Handler handler, final Callback<V> callback)
+	{
+		final RoutingTask<V> task = new RoutingTask<V>(callable, handler,
+				callback);
+		RoutingExecutor.executor.execute(task);
+		return task;
+	}
+}
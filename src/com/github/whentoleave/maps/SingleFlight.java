@@ -0,0 +1,113 @@
+package com.github.whentoleave.maps;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Coalesces concurrent requests for the same key so that only one fetch is in
+ * flight at a time per key. Every caller which asks for a key while a fetch
+ * for it is already running waits for, and receives, that fetch's result.
+ * 
+ * @param <K>
+ *            type of the request key
+ * @param <V>
+ *            type of the fetched result
+ */
+public class SingleFlight<K, V>
+{
+	/**
+	 * An in flight fetch, shared by every caller waiting on it
+	 * 
+	 * @param <V>
+	 *            type of the fetched result
+	 */
+	private static class Call<V>
+	{
+		/**
+		 * Released once the fetch completes
+		 */
+		final CountDownLatch mDone = new CountDownLatch(1);
+		/**
+		 * Result of the fetch, valid once mDone has been released
+		 */
+		V mResult;
+	}
+
+	/**
+	 * Performs the actual fetch for a key
+	 * 
+	 * @param <V>
+	 *            type of the fetched result
+	 */
+	public interface Fetcher<V>
+	{
+		/**
+		 * Fetches the result. Errors should be reported through the returned
+		 * value as it is handed to every waiting caller.
+		 * 
+		 * @return the fetched result
+		 */
+		V fetch();
+	}
+
+	/**
+	 * Fetches currently in flight, by key
+	 */
+	private final HashMap<K, Call<V>> mCalls = new HashMap<K, Call<V>>();
+
+	/**
+	 * Runs the given fetch for the key, unless a fetch for the same key is
+	 * already in flight, in which case this waits for and returns its result
+	 * 
+	 * @param key
+	 *            key identifying the request
+	 * @param fetcher
+	 *            fetch to run if no fetch for the key is in flight
+	 * @return the result of the fetch
+	 */
+	public V execute(final K key, final Fetcher<V> fetcher)
+	{
+		final Call<V> call;
+		final boolean isLeader;
+		synchronized (mCalls)
+		{
+			final Call<V> inFlightCall = mCalls.get(key);
+			isLeader = inFlightCall == null;
+			if (isLeader)
+			{
+				call = new Call<V>();
+				mCalls.put(key, call);
+			}
+			else
+				call = inFlightCall;
+		}
+		if (!isLeader)
+		{
+			boolean interrupted = false;
+			while (true)
+				try
+				{
+					call.mDone.await();
+					break;
+				} catch (final InterruptedException e)
+				{
+					interrupted = true;
+				}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			return call.mResult;
+		}
+		try
+		{
+			call.mResult = fetcher.fetch();
+		} finally
+		{
+			synchronized (mCalls)
+			{
+				mCalls.remove(key);
+			}
+			call.mDone.countDown();
+		}
+		return call.mResult;
+	}
+}
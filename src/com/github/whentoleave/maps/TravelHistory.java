@@ -0,0 +1,245 @@
+package com.github.whentoleave.maps;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+/**
+ * History of travel times returned by the routing service. Each trip is
+ * stored with the grid cell it started in, its canonical destination (see
+ * {@link TravelTimeCache#normalizeDestination(String)}), its travel type and
+ * the weekday/hour bucket and day it was made in. Only the latest travel time
+ * of a trip is kept per bucket and day, so that checking the same trip
+ * repeatedly counts as a single sample. Trips older than {@link #MAX_AGE} are
+ * pruned when the database is opened.
+ */
+public class TravelHistory extends SQLiteOpenHelper
+{
+	/**
+	 * Weekday/hour bucket column
+	 */
+	static final String COLUMN_BUCKET = "bucket";
+	/**
+	 * Day the trip was made in column, in days since the epoch in local time
+	 */
+	private static final String COLUMN_DAY = "day";
+	/**
+	 * Destination column
+	 */
+	private static final String COLUMN_DESTINATION = "destination";
+	/**
+	 * Travel time (in seconds) column
+	 */
+	static final String COLUMN_DURATION = "duration";
+	/**
+	 * Origin grid cell column
+	 */
+	private static final String COLUMN_ORIGIN_CELL = "origin_cell";
+	/**
+	 * Time the trip was recorded column
+	 */
+	static final String COLUMN_RECORDED = "recorded";
+	/**
+	 * Travel type column
+	 */
+	private static final String COLUMN_TRAVEL_TYPE = "travel_type";
+	/**
+	 * Name of the database file
+	 */
+	private static final String DATABASE_NAME = "travel_history.db";
+	/**
+	 * Current database schema version
+	 */
+	private static final int DATABASE_VERSION = 2;
+	/**
+	 * Process wide instance
+	 */
+	private static TravelHistory instance = null;
+	/**
+	 * Maximum age of a trip in milliseconds before it is pruned
+	 */
+	public static final long MAX_AGE = 90L * 24 * 60 * 60 * 1000;
+	/**
+	 * Table holding the recorded trips
+	 */
+	private static final String TABLE_TRIPS = "trips";
+	/**
+	 * Logging tag
+	 */
+	private static final String TAG = "TravelHistory";
+
+	/**
+	 * Gets the process wide TravelHistory, creating it if necessary
+	 * 
+	 * @param context
+	 *            context used to locate the database
+	 * @return the TravelHistory
+	 */
+	public static synchronized TravelHistory getInstance(final Context context)
+	{
+		if (TravelHistory.instance == null)
+			TravelHistory.instance = new TravelHistory(
+					context.getApplicationContext());
+		return TravelHistory.instance;
+	}
+
+	/**
+	 * Creates a new TravelHistory. Use {@link #getInstance(Context)} instead.
+	 * 
+	 * @param context
+	 *            context used to locate the database
+	 */
+	private TravelHistory(final Context context)
+	{
+		super(context, TravelHistory.DATABASE_NAME, null,
+				TravelHistory.DATABASE_VERSION);
+	}
+
+	/**
+	 * Records a trip in the history, replacing any travel time recorded for
+	 * the same trip in the same bucket on the same day
+	 * 
+	 * @param originCell
+	 *            grid cell the trip started in
+	 * @param destination
+	 *            destination address
+	 * @param travelType
+	 *            travel type of the trip
+	 * @param bucket
+	 *            weekday/hour bucket the trip was made in
+	 * @param day
+	 *            day the trip was made in, in days since the epoch in local
+	 *            time
+	 * @param durationSec
+	 *            travel time of the trip in seconds
+	 */
+	public void append(final String originCell, final String destination,
+			final String travelType, final int bucket, final int day,
+			final int durationSec)
+	{
+		final ContentValues values = new ContentValues();
+		values.put(TravelHistory.COLUMN_ORIGIN_CELL, originCell);
+		values.put(TravelHistory.COLUMN_DESTINATION,
+				TravelTimeCache.normalizeDestination(destination));
+		values.put(TravelHistory.COLUMN_TRAVEL_TYPE, travelType);
+		values.put(TravelHistory.COLUMN_BUCKET, bucket);
+		values.put(TravelHistory.COLUMN_DAY, day);
+		values.put(TravelHistory.COLUMN_DURATION, durationSec);
+		values.put(TravelHistory.COLUMN_RECORDED, System.currentTimeMillis());
+		try
+		{
+			getWritableDatabase().insertWithOnConflict(
+					TravelHistory.TABLE_TRIPS, null, values,
+					SQLiteDatabase.CONFLICT_REPLACE);
+		} catch (final SQLiteException e)
+		{
+			Log.w(TravelHistory.TAG, "Error recording trip to " + destination,
+					e);
+		}
+	}
+
+	@Override
+	public void onCreate(final SQLiteDatabase db)
+	{
+		db.execSQL("CREATE TABLE " + TravelHistory.TABLE_TRIPS
+				+ " (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+				+ TravelHistory.COLUMN_ORIGIN_CELL + " TEXT NOT NULL, "
+				+ TravelHistory.COLUMN_DESTINATION + " TEXT NOT NULL, "
+				+ TravelHistory.COLUMN_TRAVEL_TYPE + " TEXT NOT NULL, "
+				+ TravelHistory.COLUMN_BUCKET + " INTEGER NOT NULL, "
+				+ TravelHistory.COLUMN_DAY + " INTEGER NOT NULL, "
+				+ TravelHistory.COLUMN_DURATION + " INTEGER NOT NULL, "
+				+ TravelHistory.COLUMN_RECORDED + " INTEGER NOT NULL)");
+		// Also keeps a single travel time per trip, bucket and day
+		db.execSQL("CREATE UNIQUE INDEX trips_trip ON "
+				+ TravelHistory.TABLE_TRIPS + " ("
+				+ TravelHistory.COLUMN_ORIGIN_CELL + ", "
+				+ TravelHistory.COLUMN_DESTINATION + ", "
+				+ TravelHistory.COLUMN_TRAVEL_TYPE + ", "
+				+ TravelHistory.COLUMN_BUCKET + ", " + TravelHistory.COLUMN_DAY
+				+ ")");
+	}
+
+	@Override
+	public void onOpen(final SQLiteDatabase db)
+	{
+		super.onOpen(db);
+		if (db.isReadOnly())
+			return;
+		db.delete(TravelHistory.TABLE_TRIPS, TravelHistory.COLUMN_RECORDED
+				+ "<?", new String[] { Long.toString(System.currentTimeMillis()
+				- TravelHistory.MAX_AGE) });
+	}
+
+	@Override
+	public void onUpgrade(final SQLiteDatabase db, final int oldVersion,
+			final int newVersion)
+	{
+		// The history only improves predictions, so simply start over
+		db.execSQL("DROP TABLE IF EXISTS " + TravelHistory.TABLE_TRIPS);
+		onCreate(db);
+	}
+
+	/**
+	 * Queries the most recent trips matching the given trip in any of the
+	 * given buckets. Note that it is up to the caller to close the cursor!
+	 * 
+	 * @param originCell
+	 *            grid cell the trip starts in
+	 * @param destination
+	 *            destination address
+	 * @param travelType
+	 *            travel type of the trip
+	 * @param buckets
+	 *            weekday/hour buckets to match
+	 * @param limit
+	 *            maximum number of trips to return
+	 * @return a cursor over the {@link #COLUMN_BUCKET},
+	 *         {@link #COLUMN_DURATION} and {@link #COLUMN_RECORDED} columns of
+	 *         the matching trips, most recent first, or null if the history
+	 *         could not be read
+	 */
+	Cursor query(final String originCell, final String destination,
+			final String travelType, final int[] buckets, final int limit)
+	{
+		final StringBuilder selection = new StringBuilder();
+		selection.append(TravelHistory.COLUMN_ORIGIN_CELL);
+		selection.append("=? AND ");
+		selection.append(TravelHistory.COLUMN_DESTINATION);
+		selection.append("=? AND ");
+		selection.append(TravelHistory.COLUMN_TRAVEL_TYPE);
+		selection.append("=? AND ");
+		selection.append(TravelHistory.COLUMN_BUCKET);
+		selection.append(" IN (");
+		for (int h = 0; h < buckets.length; h++)
+		{
+			if (h > 0)
+				selection.append(',');
+			selection.append(buckets[h]);
+		}
+		selection.append(')');
+		try
+		{
+			return getReadableDatabase().query(
+					TravelHistory.TABLE_TRIPS,
+					new String[] { TravelHistory.COLUMN_BUCKET,
+							TravelHistory.COLUMN_DURATION,
+							TravelHistory.COLUMN_RECORDED },
+					selection.toString(),
+					new String[] { originCell,
+							TravelTimeCache.normalizeDestination(destination),
+							travelType }, null, null,
+					TravelHistory.COLUMN_RECORDED + " DESC",
+					Integer.toString(limit));
+		} catch (final SQLiteException e)
+		{
+			Log.w(TravelHistory.TAG, "Error reading trips to " + destination,
+					e);
+			return null;
+		}
+	}
+}
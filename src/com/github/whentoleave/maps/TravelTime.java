@@ -0,0 +1,53 @@
+package com.github.whentoleave.maps;
+
+/**
+ * A travel time to a destination, along with whether it came from the
+ * routing service or was estimated locally
+ */
+public class TravelTime
+{
+	/**
+	 * Whether the travel time was estimated locally rather than retrieved from
+	 * the routing service
+	 */
+	private final boolean mEstimated;
+	/**
+	 * Travel time in minutes
+	 */
+	private final int mMinutes;
+
+	/**
+	 * Creates a new TravelTime
+	 * 
+	 * @param minutes
+	 *            travel time in minutes
+	 * @param estimated
+	 *            whether the travel time was estimated locally
+	 */
+	public TravelTime(final int minutes, final boolean estimated)
+	{
+		mMinutes = minutes;
+		mEstimated = estimated;
+	}
+
+	/**
+	 * Gets the travel time
+	 * 
+	 * @return travel time in minutes
+	 */
+	public int getMinutes()
+	{
+		return mMinutes;
+	}
+
+	/**
+	 * Whether the travel time was estimated locally rather than retrieved from
+	 * the routing service
+	 * 
+	 * @return true if the travel time is an estimate
+	 */
+	public boolean isEstimated()
+	{
+		return mEstimated;
+	}
+}
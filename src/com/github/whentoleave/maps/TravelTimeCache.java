@@ -0,0 +1,299 @@
+package com.github.whentoleave.maps;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import android.location.Location;
+import android.os.SystemClock;
+
+/**
+ * Bounded, in-memory cache of travel times. Entries are keyed by a normalized
+ * destination and a travel mode and tagged with the origin they were computed
+ * from. They are invalidated once the device has moved farther than a
+ * travel mode dependent distance from that origin or after a configurable
+ * time to live, and are evicted least recently used first once the cache is
+ * full.
+ */
+public class TravelTimeCache
+{
+	/**
+	 * A single cached travel time
+	 */
+	private static class Entry
+	{
+		/**
+		 * Travel time in minutes
+		 */
+		final int mDuration;
+		/**
+		 * Latitude of the origin the travel time was computed from
+		 */
+		final double mLatitude;
+		/**
+		 * Longitude of the origin the travel time was computed from
+		 */
+		final double mLongitude;
+		/**
+		 * Time (in elapsed realtime milliseconds) this entry was stored
+		 */
+		final long mTimestamp;
+		/**
+		 * Time to live of this entry in milliseconds, or 0 to use the cache's
+		 */
+		final long mTtl;
+
+		/**
+		 * Creates a new cache entry
+		 * 
+		 * @param origin
+		 *            origin the travel time was computed from
+		 * @param duration
+		 *            travel time in minutes
+		 * @param timestamp
+		 *            time this entry was stored
+		 * @param ttl
+		 *            time to live of this entry in milliseconds, or 0 to use
+		 *            the cache's
+		 */
+		Entry(final Location origin, final int duration,
+				final long timestamp, final long ttl)
+		{
+			mLatitude = origin.getLatitude();
+			mLongitude = origin.getLongitude();
+			mDuration = duration;
+			mTimestamp = timestamp;
+			mTtl = ttl;
+		}
+	}
+
+	/**
+	 * Distance in meters a bicycling travel time stays valid for
+	 */
+	private static final float BICYCLING_THRESHOLD = 150;
+	/**
+	 * Distance in meters a driving travel time stays valid for
+	 */
+	private static final float DRIVING_THRESHOLD = 300;
+	/**
+	 * Distance in meters a walking travel time stays valid for
+	 */
+	private static final float WALKING_THRESHOLD = 75;
+
+	/**
+	 * Builds the cache key for the given trip
+	 * 
+	 * @param destination
+	 *            destination address
+	 * @param travelType
+	 *            transportation mode
+	 * @return key identifying the trip
+	 */
+	public static String getKey(final String destination,
+			final String travelType)
+	{
+		return TravelTimeCache.normalizeDestination(destination) + "|"
+				+ travelType;
+	}
+
+	/**
+	 * Gets how far the device can move from the origin of a travel time before
+	 * it needs to be recomputed. Slower travel types use shorter distances, as
+	 * the same movement changes their travel time more.
+	 * 
+	 * @param travelType
+	 *            transportation mode
+	 * @return distance in meters
+	 */
+	public static float getMovementThreshold(final String travelType)
+	{
+		if ("walking".equals(travelType))
+			return TravelTimeCache.WALKING_THRESHOLD;
+		if ("bicycling".equals(travelType))
+			return TravelTimeCache.BICYCLING_THRESHOLD;
+		return TravelTimeCache.DRIVING_THRESHOLD;
+	}
+
+	/**
+	 * Normalizes a destination address so trivially different spellings of
+	 * the same address (case, surrounding or repeated whitespace) share a
+	 * cache entry
+	 * 
+	 * @param destination
+	 *            destination address
+	 * @return normalized address
+	 */
+	public static String normalizeDestination(final String destination)
+	{
+		return destination.trim().replaceAll("\\s+", " ")
+				.toLowerCase(Locale.US);
+	}
+
+	/**
+	 * Cached entries, in least recently accessed order
+	 */
+	private final LinkedHashMap<String, Entry> mEntries;
+	/**
+	 * Number of lookups answered from the cache
+	 */
+	private int mHits = 0;
+	/**
+	 * Maximum number of entries held at once
+	 */
+	private final int mMaxEntries;
+	/**
+	 * Number of lookups which were not found, had expired or were computed
+	 * too far away
+	 */
+	private int mMisses = 0;
+	/**
+	 * Time to live of each entry in milliseconds
+	 */
+	private long mTtl;
+
+	/**
+	 * Creates a new, empty cache
+	 * 
+	 * @param maxEntries
+	 *            maximum number of entries to hold before evicting the least
+	 *            recently used
+	 * @param ttl
+	 *            time to live of each entry in milliseconds
+	 */
+	public TravelTimeCache(final int maxEntries, final long ttl)
+	{
+		mMaxEntries = maxEntries;
+		mTtl = ttl;
+		mEntries = new LinkedHashMap<String, Entry>(maxEntries, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<String, Entry> eldest)
+			{
+				return size() > mMaxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Removes all entries from the cache
+	 */
+	public synchronized void clear()
+	{
+		mEntries.clear();
+	}
+
+	/**
+	 * Gets the cached travel time for the given key
+	 * 
+	 * @param key
+	 *            key as returned by {@link #getKey(String, String)}
+	 * @param travelType
+	 *            transportation mode, determining how far the origin may have
+	 *            moved
+	 * @param origin
+	 *            current starting location
+	 * @return the cached travel time in minutes or null if there is no
+	 *         unexpired entry computed close enough to the origin
+	 */
+	public synchronized Integer get(final String key, final String travelType,
+			final Location origin)
+	{
+		final Entry entry = mEntries.get(key);
+		if (entry == null)
+		{
+			mMisses++;
+			return null;
+		}
+		final long ttl = entry.mTtl > 0 ? entry.mTtl : mTtl;
+		if (SystemClock.elapsedRealtime() - entry.mTimestamp > ttl)
+		{
+			mEntries.remove(key);
+			mMisses++;
+			return null;
+		}
+		if (TravelTimeEstimator.distanceBetween(entry.mLatitude,
+				entry.mLongitude, origin.getLatitude(), origin.getLongitude()) > TravelTimeCache
+				.getMovementThreshold(travelType))
+		{
+			// Left in place in case the device returns to the origin; a fresh
+			// result will replace it in the meantime
+			mMisses++;
+			return null;
+		}
+		mHits++;
+		return entry.mDuration;
+	}
+
+	/**
+	 * Gets the number of lookups answered from the cache
+	 * 
+	 * @return the number of cache hits
+	 */
+	public synchronized int getHitCount()
+	{
+		return mHits;
+	}
+
+	/**
+	 * Gets the number of lookups which were not found, had expired or were
+	 * computed too far away
+	 * 
+	 * @return the number of cache misses
+	 */
+	public synchronized int getMissCount()
+	{
+		return mMisses;
+	}
+
+	/**
+	 * Stores a travel time
+	 * 
+	 * @param key
+	 *            key as returned by {@link #getKey(String, String)}
+	 * @param origin
+	 *            origin the travel time was computed from
+	 * @param duration
+	 *            travel time in minutes
+	 */
+	public synchronized void put(final String key, final Location origin,
+			final int duration)
+	{
+		put(key, origin, duration, 0);
+	}
+
+	/**
+	 * Stores a travel time with its own time to live, such as one prefetched
+	 * ahead of when it will be needed
+	 * 
+	 * @param key
+	 *            key as returned by {@link #getKey(String, String)}
+	 * @param origin
+	 *            origin the travel time was computed from
+	 * @param duration
+	 *            travel time in minutes
+	 * @param ttl
+	 *            time to live of the entry in milliseconds, or 0 to use the
+	 *            cache's
+	 */
+	public synchronized void put(final String key, final Location origin,
+			final int duration, final long ttl)
+	{
+		mEntries.put(key, new Entry(origin, duration,
+				SystemClock.elapsedRealtime(), ttl));
+	}
+
+	/**
+	 * Sets the time to live of entries. Applies to existing entries as well,
+	 * other than those stored with their own time to live.
+	 * 
+	 * @param ttl
+	 *            time to live in milliseconds
+	 */
+	public synchronized void setTtl(final long ttl)
+	{
+		mTtl = ttl;
+	}
+}
@@ -0,0 +1,197 @@
+package com.github.whentoleave.maps;
+
+import android.content.SharedPreferences;
+import android.location.Location;
+
+import com.google.android.maps.GeoPoint;
+
+/**
+ * Estimates travel times locally, without the network, from the great-circle
+ * distance to the destination and a per travel type pace. The pace starts out
+ * from a typical speed and detour factor for each travel type and is
+ * calibrated against travel times returned by the routing service.
+ */
+public class TravelTimeEstimator
+{
+	/**
+	 * Weight given to each new calibration sample
+	 */
+	private static final float CALIBRATION_WEIGHT = 0.2f;
+	/**
+	 * Default detour factors (route distance / great-circle distance) for
+	 * driving, bicycling and walking respectively
+	 */
+	private static final float[] DEFAULT_DETOURS = { 1.35f, 1.25f, 1.2f };
+	/**
+	 * Default speeds in meters per second for driving, bicycling and walking
+	 * respectively
+	 */
+	private static final float[] DEFAULT_SPEEDS = { 11.0f, 4.2f, 1.35f };
+	/**
+	 * Radius of the Earth in meters
+	 */
+	private static final double EARTH_RADIUS = 6371009;
+	/**
+	 * Minimum great-circle distance in meters for a trip to be used for
+	 * calibration, as the pace of very short trips is dominated by noise
+	 */
+	private static final float MIN_CALIBRATION_DISTANCE = 500;
+	/**
+	 * Preference key prefix under which calibrated paces are stored
+	 */
+	private static final String PREF_PACE = "Pace_";
+	/**
+	 * Travel types, in the order of the default arrays
+	 */
+	private static final String[] TRAVEL_TYPES = { "driving", "bicycling",
+			"walking" };
+
+	/**
+	 * Gets the great-circle distance between two points
+	 * 
+	 * @param latitude1
+	 *            latitude of the first point in degrees
+	 * @param longitude1
+	 *            longitude of the first point in degrees
+	 * @param latitude2
+	 *            latitude of the second point in degrees
+	 * @param longitude2
+	 *            longitude of the second point in degrees
+	 * @return distance in meters
+	 */
+	public static double distanceBetween(final double latitude1,
+			final double longitude1, final double latitude2,
+			final double longitude2)
+	{
+		final double lat1 = Math.toRadians(latitude1);
+		final double lat2 = Math.toRadians(latitude2);
+		final double sinHalfDeltaLat = Math.sin((lat2 - lat1) / 2);
+		final double sinHalfDeltaLng = Math.sin(Math.toRadians(longitude2
+				- longitude1) / 2);
+		final double a = sinHalfDeltaLat * sinHalfDeltaLat + Math.cos(lat1)
+				* Math.cos(lat2) * sinHalfDeltaLng * sinHalfDeltaLng;
+		return 2 * TravelTimeEstimator.EARTH_RADIUS
+				* Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+	}
+
+	/**
+	 * Gets the great-circle distance from a location to a point
+	 * 
+	 * @param origin
+	 *            starting location
+	 * @param destination
+	 *            destination point
+	 * @return distance in meters
+	 */
+	public static double distanceBetween(final Location origin,
+			final GeoPoint destination)
+	{
+		return TravelTimeEstimator.distanceBetween(origin.getLatitude(),
+				origin.getLongitude(), destination.getLatitudeE6() / 1E6,
+				destination.getLongitudeE6() / 1E6);
+	}
+
+	/**
+	 * Gets the index of the given travel type in the default arrays
+	 * 
+	 * @param travelType
+	 *            travel type
+	 * @return index of the travel type, defaulting to driving
+	 */
+	private static int indexOf(final String travelType)
+	{
+		for (int h = 0; h < TravelTimeEstimator.TRAVEL_TYPES.length; h++)
+			if (TravelTimeEstimator.TRAVEL_TYPES[h].equals(travelType))
+				return h;
+		return 0;
+	}
+
+	/**
+	 * Current pace, in seconds per meter of great-circle distance, for each
+	 * travel type
+	 */
+	private final float[] mPaces = new float[TravelTimeEstimator.TRAVEL_TYPES.length];
+	/**
+	 * Preferences calibrated paces are persisted to, if any
+	 */
+	private SharedPreferences mPreferences = null;
+
+	/**
+	 * Creates a new estimator using the default pace for each travel type
+	 */
+	public TravelTimeEstimator()
+	{
+		for (int h = 0; h < mPaces.length; h++)
+			mPaces[h] = TravelTimeEstimator.DEFAULT_DETOURS[h]
+					/ TravelTimeEstimator.DEFAULT_SPEEDS[h];
+	}
+
+	/**
+	 * Calibrates the pace of a travel type against a travel time returned by
+	 * the routing service
+	 * 
+	 * @param origin
+	 *            starting location of the trip
+	 * @param destination
+	 *            destination of the trip
+	 * @param travelType
+	 *            travel type of the trip
+	 * @param durationSec
+	 *            travel time of the trip in seconds
+	 */
+	public synchronized void calibrate(final Location origin,
+			final GeoPoint destination, final String travelType,
+			final int durationSec)
+	{
+		final double distance = TravelTimeEstimator.distanceBetween(origin,
+				destination);
+		if (distance < TravelTimeEstimator.MIN_CALIBRATION_DISTANCE)
+			return;
+		final int index = TravelTimeEstimator.indexOf(travelType);
+		final float pace = (float) (durationSec / distance);
+		mPaces[index] += TravelTimeEstimator.CALIBRATION_WEIGHT
+				* (pace - mPaces[index]);
+		if (mPreferences != null)
+			mPreferences
+					.edit()
+					.putFloat(
+							TravelTimeEstimator.PREF_PACE
+									+ TravelTimeEstimator.TRAVEL_TYPES[index],
+							mPaces[index]).apply();
+	}
+
+	/**
+	 * Estimates the travel time from a location to a point
+	 * 
+	 * @param origin
+	 *            starting location
+	 * @param destination
+	 *            destination point
+	 * @param travelType
+	 *            transportation mode to use
+	 * @return estimated travel time in minutes
+	 */
+	public synchronized int estimate(final Location origin,
+			final GeoPoint destination, final String travelType)
+	{
+		final double distance = TravelTimeEstimator.distanceBetween(origin,
+				destination);
+		return (int) Math.round(distance
+				* mPaces[TravelTimeEstimator.indexOf(travelType)] / 60);
+	}
+
+	/**
+	 * Loads previously calibrated paces from, and persists future calibrations
+	 * to, the given preferences
+	 * 
+	 * @param preferences
+	 *            preferences to store calibrated paces in
+	 */
+	public synchronized void setPreferences(final SharedPreferences preferences)
+	{
+		mPreferences = preferences;
+		for (int h = 0; h < mPaces.length; h++)
+			mPaces[h] = preferences.getFloat(TravelTimeEstimator.PREF_PACE
+					+ TravelTimeEstimator.TRAVEL_TYPES[h], mPaces[h]);
+	}
+}
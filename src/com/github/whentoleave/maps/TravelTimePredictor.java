@@ -0,0 +1,294 @@
+package com.github.whentoleave.maps;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import android.database.Cursor;
+import android.location.Location;
+
+/**
+ * Predicts travel times for repeat trips from the {@link TravelHistory}. Trips
+ * are matched by the grid cell they start in, their destination and travel
+ * type, and the hour of day on the same kind of day (weekday or weekend),
+ * with trips in the exact weekday/hour bucket weighted more heavily. As the
+ * history keeps a single trip per bucket and day, confidence grows with the
+ * number of distinct days a trip was made on, not with how often it was
+ * checked.
+ */
+public class TravelTimePredictor
+{
+	/**
+	 * Predicted travel time along with how far it can be trusted
+	 */
+	public static class Prediction
+	{
+		/**
+		 * Confidence in the prediction, from 0 to 1
+		 */
+		private final float mConfidence;
+		/**
+		 * Predicted travel time in minutes
+		 */
+		private final int mMinutes;
+		/**
+		 * Time the most recent matching trip was recorded
+		 */
+		private final long mNewestSample;
+
+		/**
+		 * Creates a new Prediction
+		 * 
+		 * @param minutes
+		 *            predicted travel time in minutes
+		 * @param confidence
+		 *            confidence in the prediction, from 0 to 1
+		 * @param newestSample
+		 *            time the most recent matching trip was recorded
+		 */
+		Prediction(final int minutes, final float confidence,
+				final long newestSample)
+		{
+			mMinutes = minutes;
+			mConfidence = confidence;
+			mNewestSample = newestSample;
+		}
+
+		/**
+		 * Getter for the confidence in the prediction
+		 * 
+		 * @return confidence from 0 (none) to 1 (full)
+		 */
+		public float getConfidence()
+		{
+			return mConfidence;
+		}
+
+		/**
+		 * Getter for the predicted travel time
+		 * 
+		 * @return predicted travel time in minutes
+		 */
+		public int getMinutes()
+		{
+			return mMinutes;
+		}
+
+		/**
+		 * Getter for the time the most recent matching trip was recorded
+		 * 
+		 * @return time in milliseconds since the epoch
+		 */
+		public long getNewestSample()
+		{
+			return mNewestSample;
+		}
+
+		/**
+		 * Whether the prediction can be used in place of asking the routing
+		 * service, i.e., it is confident and its most recent sample was
+		 * retrieved within {@link TravelTimePredictor#REFRESH_INTERVAL}
+		 * 
+		 * @return true if the prediction is reliable
+		 */
+		public boolean isReliable()
+		{
+			return mConfidence >= TravelTimePredictor.MIN_CONFIDENCE
+					&& System.currentTimeMillis() - mNewestSample <= TravelTimePredictor.REFRESH_INTERVAL;
+		}
+	}
+
+	/**
+	 * Number of grid cells per degree of latitude/longitude when grouping trip
+	 * origins, roughly 500m at the equator
+	 */
+	private static final int CELL_SCALE = 200;
+	/**
+	 * Weight of a trip in the exact weekday/hour bucket, relative to one at the
+	 * same hour on another day of the same kind
+	 */
+	private static final int EXACT_BUCKET_WEIGHT = 2;
+	/**
+	 * Total sample weight at which the sample count no longer limits
+	 * confidence, i.e., the number of distinct days a trip must have been made
+	 * on, with days in the exact weekday/hour bucket counting double
+	 */
+	private static final float FULL_CONFIDENCE_WEIGHT = 6;
+	/**
+	 * Maximum number of trips considered for a prediction
+	 */
+	private static final int MAX_SAMPLES = 20;
+	/**
+	 * Minimum confidence for a prediction to be reliable
+	 */
+	public static final float MIN_CONFIDENCE = 0.6f;
+	/**
+	 * Maximum age in milliseconds of the most recent trip for a prediction to
+	 * be reliable. Once older, the routing service is asked again, so that
+	 * confident predictions only reduce how often it is asked and live
+	 * traffic keeps being recorded.
+	 */
+	public static final long REFRESH_INTERVAL = 30 * 60 * 1000;
+
+	/**
+	 * Gets the weekday/hour bucket of the given time
+	 * 
+	 * @param time
+	 *            time in milliseconds since the epoch
+	 * @return bucket from 0 (Sunday, midnight) to 167 (Saturday, 11pm)
+	 */
+	public static int getBucket(final long time)
+	{
+		final Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		return (calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY) * 24
+				+ calendar.get(Calendar.HOUR_OF_DAY);
+	}
+
+	/**
+	 * Gets the day of the given time
+	 * 
+	 * @param time
+	 *            time in milliseconds since the epoch
+	 * @return days since the epoch in local time
+	 */
+	public static int getDay(final long time)
+	{
+		final long localTime = time + TimeZone.getDefault().getOffset(time);
+		return (int) (localTime / (24 * 60 * 60 * 1000));
+	}
+
+	/**
+	 * Gets every bucket at the same hour as the given bucket on the same kind
+	 * of day (weekday or weekend)
+	 * 
+	 * @param bucket
+	 *            weekday/hour bucket
+	 * @return matching buckets, including the given bucket
+	 */
+	private static int[] getMatchingBuckets(final int bucket)
+	{
+		final int day = bucket / 24;
+		final int hour = bucket % 24;
+		final boolean weekend = day == 0 || day == 6;
+		final int[] buckets = new int[weekend ? 2 : 5];
+		if (weekend)
+		{
+			buckets[0] = hour;
+			buckets[1] = 6 * 24 + hour;
+		}
+		else
+			for (int h = 0; h < buckets.length; h++)
+				buckets[h] = (h + 1) * 24 + hour;
+		return buckets;
+	}
+
+	/**
+	 * Gets the grid cell the given location falls in
+	 * 
+	 * @param location
+	 *            location
+	 * @return grid cell identifier
+	 */
+	public static String getOriginCell(final Location location)
+	{
+		final long lat = (long) Math.floor(location.getLatitude()
+				* TravelTimePredictor.CELL_SCALE);
+		final long lng = (long) Math.floor(location.getLongitude()
+				* TravelTimePredictor.CELL_SCALE);
+		return lat + "," + lng;
+	}
+
+	/**
+	 * History the predictions are made from
+	 */
+	private final TravelHistory mHistory;
+
+	/**
+	 * Creates a new TravelTimePredictor
+	 * 
+	 * @param history
+	 *            history to record trips in and predict from
+	 */
+	public TravelTimePredictor(final TravelHistory history)
+	{
+		mHistory = history;
+	}
+
+	/**
+	 * Predicts the travel time of a trip starting now
+	 * 
+	 * @param origin
+	 *            starting location
+	 * @param destination
+	 *            destination address
+	 * @param travelType
+	 *            transportation mode to use
+	 * @return the prediction or null if no matching trips have been recorded
+	 */
+	public Prediction predict(final Location origin, final String destination,
+			final String travelType)
+	{
+		final int bucket = TravelTimePredictor.getBucket(System
+				.currentTimeMillis());
+		final Cursor cursor = mHistory.query(
+				TravelTimePredictor.getOriginCell(origin), destination,
+				travelType, TravelTimePredictor.getMatchingBuckets(bucket),
+				TravelTimePredictor.MAX_SAMPLES);
+		if (cursor == null)
+			return null;
+		try
+		{
+			if (!cursor.moveToFirst())
+				return null;
+			final long newestSample = cursor.getLong(2);
+			double weightSum = 0;
+			double sum = 0;
+			double sumOfSquares = 0;
+			do
+			{
+				final int weight = cursor.getInt(0) == bucket ? TravelTimePredictor.EXACT_BUCKET_WEIGHT
+						: 1;
+				final double duration = cursor.getInt(1);
+				weightSum += weight;
+				sum += weight * duration;
+				sumOfSquares += weight * duration * duration;
+			} while (cursor.moveToNext());
+			final double mean = sum / weightSum;
+			final double variance = Math.max(0, sumOfSquares / weightSum - mean
+					* mean);
+			// Confidence grows with the amount of history and shrinks as the
+			// recorded travel times vary more
+			final double variation = mean > 0 ? Math.sqrt(variance) / mean : 0;
+			final float confidence = (float) (Math.min(1, weightSum
+					/ TravelTimePredictor.FULL_CONFIDENCE_WEIGHT) * Math.max(0,
+					1 - 2 * variation));
+			return new Prediction((int) Math.round(mean / 60), confidence,
+					newestSample);
+		} finally
+		{
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Records a travel time returned by the routing service for a trip starting
+	 * now
+	 * 
+	 * @param origin
+	 *            starting location of the trip
+	 * @param destination
+	 *            destination address
+	 * @param travelType
+	 *            travel type of the trip
+	 * @param durationSec
+	 *            travel time of the trip in seconds
+	 */
+	public void record(final Location origin, final String destination,
+			final String travelType, final int durationSec)
+	{
+		final long now = System.currentTimeMillis();
+		mHistory.append(TravelTimePredictor.getOriginCell(origin), destination,
+				travelType, TravelTimePredictor.getBucket(now),
+				TravelTimePredictor.getDay(now), durationSec);
+	}
+}
@@ -3,6 +3,9 @@ package com.github.whentoleave.service;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import android.app.AlarmManager;
 import android.app.NotificationManager;
@@ -21,12 +24,16 @@ import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.provider.BaseColumns;
 import android.provider.CalendarContract;
 import android.util.Log;
 
 import com.github.whentoleave.BuildConfig;
 import com.github.whentoleave.maps.RouteInformation;
+import com.github.whentoleave.maps.RoutingExecutor;
+import com.github.whentoleave.maps.TravelTime;
+import com.github.whentoleave.maps.TravelTimeCache;
 import com.github.whentoleave.utility.NotificationUtility;
 
 /**
@@ -70,6 +77,17 @@ public class LocationService extends Service implements LocationListener,
 	 * Preferences name to load settings from
 	 */
 	private static final String PREF = "MyPrefs";
+	/**
+	 * Number of upcoming events with a location whose travel times are kept
+	 * warm
+	 */
+	private static final int PREFETCH_COUNT = 5;
+	/**
+	 * Extra time in milliseconds prefetched travel times stay cached past
+	 * their next scheduled refresh, covering the minute between notification
+	 * checks
+	 */
+	private static final long PREFETCH_TTL_MARGIN = 2 * 60 * 1000;
 	/**
 	 * A 'significant' time period between location updates. Currently two
 	 * minutes in milliseconds
@@ -80,6 +98,31 @@ public class LocationService extends Service implements LocationListener,
 	 */
 	private static final String TAG = "AppService";
 
+	/**
+	 * Gets how often the travel time to an event should be refreshed, more
+	 * often the closer the event is
+	 * 
+	 * @param timeUntilStart
+	 *            time until the event starts in milliseconds
+	 * @param notifyTimeInMin
+	 *            notify time preference in minutes
+	 * @return refresh interval in milliseconds
+	 */
+	private static long getPrefetchInterval(final long timeUntilStart,
+			final int notifyTimeInMin)
+	{
+		final long minute = 60 * 1000;
+		// Within the notify window, allowing up to an hour of travel
+		if (timeUntilStart <= (notifyTimeInMin + 60) * minute)
+			return 5 * minute;
+		if (timeUntilStart <= 6 * 60 * minute)
+			return 15 * minute;
+		// Through tomorrow
+		if (timeUntilStart <= 48 * 60 * minute)
+			return 60 * minute;
+		return 6 * 60 * minute;
+	}
+
 	/**
 	 * Determines whether one Location reading is better than the current
 	 * Location fix. Modified from <a href=
@@ -156,6 +199,14 @@ public class LocationService extends Service implements LocationListener,
 	 * Current location of the device
 	 */
 	private Location currentLocation = null;
+	/**
+	 * Location the last location triggered notification check was made from
+	 */
+	private Location checkedLocation = null;
+	/**
+	 * Handler used to receive asynchronous routing results on the main thread
+	 */
+	private final Handler handler = new Handler();
 	/**
 	 * List of Messengers to notify of location changes
 	 */
@@ -172,16 +223,32 @@ public class LocationService extends Service implements LocationListener,
 	 * NotificationUtility used to send out notifications
 	 */
 	private NotificationUtility mNotificationUtility = null;
+	/**
+	 * Pending travel time request for the notification check, if any
+	 */
+	private Future<TravelTime> notificationRequest = null;
+	/**
+	 * Location the prefetched travel times were retrieved from
+	 */
+	private Location prefetchOrigin = null;
+	/**
+	 * Pending prefetch request, if any, kept until its result is delivered
+	 */
+	private Future<boolean[]> prefetchRequest = null;
+	/**
+	 * Elapsed realtime each upcoming event's travel time was last
+	 * successfully prefetched, keyed by event id
+	 */
+	private HashMap<Long, Long> prefetchTimes = new HashMap<Long, Long>();
 
 	/**
-	 * Check for notifications, sending them out if required
+	 * Check for notifications, sending them out if required, and keep the
+	 * travel times to upcoming events warm
 	 */
 	private void checkNotifications()
 	{
 		final SharedPreferences settings = getSharedPreferences(
 				LocationService.PREF, 0);
-		if (!settings.getBoolean("EnableNotifications", true))
-			return;
 		if (BuildConfig.DEBUG)
 			Log.d(LocationService.TAG, "Checking for notification");
 		final Calendar twoWeeksFromNow = Calendar.getInstance();
@@ -197,34 +264,66 @@ public class LocationService extends Service implements LocationListener,
 				CalendarContract.Events.EVENT_LOCATION };
 		final Cursor data = getContentResolver().query(
 				CalendarContract.Events.CONTENT_URI, projection, selection,
-				selectionArgs, null);
+				selectionArgs, CalendarContract.Events.DTSTART + " ASC");
+		final String travelType = settings.getString("TransportPreference",
+				"driving");
+		final int notifyTimeInMin = settings.getInt("NotifyTime", 3600) / 60;
+		prefetchTravelTimes(data, travelType, notifyTimeInMin);
+		if (!settings.getBoolean("EnableNotifications", true))
+		{
+			data.close();
+			return;
+		}
 		// No next event = no notification needed
 		if (!data.moveToFirst())
+		{
+			data.close();
 			return;
+		}
 		// No current location = no when to leave
 		if (currentLocation == null)
+		{
+			data.close();
 			return;
-		final String travelType = settings.getString("TransportPreference",
-				"driving");
+		}
 		final int locationColumnIndex = data
 				.getColumnIndex(CalendarContract.Events.EVENT_LOCATION);
 		final String location = data.getString(locationColumnIndex);
 		final int startTimeColumnIndex = data
 				.getColumnIndex(CalendarContract.Events.DTSTART);
 		final long startTime = data.getLong(startTimeColumnIndex);
-		final int travelTime = RouteInformation.getDuration(currentLocation,
-				location, travelType);
-		final long minutesUntilEvent = (startTime - new Date().getTime()) / 60000;
-		final long leaveInMinutes = minutesUntilEvent - travelTime;
-		Log.v(LocationService.TAG, "Leave in " + leaveInMinutes + " minutes");
-		final int notifyTimeInMin = settings.getInt("NotifyTime", 3600) / 60;
-		Log.v(LocationService.TAG, "Notification Pref:" + notifyTimeInMin);
 		final int titleColumnIndex = data
 				.getColumnIndex(CalendarContract.Events.TITLE);
 		final String title = data.getString(titleColumnIndex);
-		if (leaveInMinutes <= notifyTimeInMin)
-			mNotificationUtility.createSimpleNotification(title, startTime,
-					location, leaveInMinutes, notifyTimeInMin);
+		data.close();
+		// A newer check supersedes any still waiting on the network
+		if (notificationRequest != null)
+			notificationRequest.cancel(false);
+		notificationRequest = RouteInformation.getTravelTimeAsync(
+				currentLocation, location, travelType, handler,
+				new RoutingExecutor.Callback<TravelTime>()
+				{
+					@Override
+					public void onResult(final TravelTime travelTime)
+					{
+						notificationRequest = null;
+						final long minutesUntilEvent = (startTime - new Date()
+								.getTime()) / 60000;
+						final long leaveInMinutes = minutesUntilEvent
+								- (travelTime == null ? 0 : travelTime
+										.getMinutes());
+						Log.v(LocationService.TAG, "Leave in " + leaveInMinutes
+								+ " minutes");
+						Log.v(LocationService.TAG, "Notification Pref:"
+								+ notifyTimeInMin);
+						if (leaveInMinutes <= notifyTimeInMin)
+							mNotificationUtility.createSimpleNotification(
+									title, startTime, location,
+									leaveInMinutes, notifyTimeInMin,
+									travelTime != null
+											&& travelTime.isEstimated());
+					}
+				});
 	}
 
 	/**
@@ -304,6 +403,7 @@ public class LocationService extends Service implements LocationListener,
 		if (BuildConfig.DEBUG)
 			Log.d(LocationService.TAG, "onCreate");
 		locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+		RouteInformation.init(this);
 		// Setup Notification Utility Manager
 		final NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
 		mNotificationUtility = new NotificationUtility(this, nm);
@@ -331,6 +431,10 @@ public class LocationService extends Service implements LocationListener,
 		if (BuildConfig.DEBUG)
 			Log.d(LocationService.TAG, "onDestroy");
 		locationManager.removeUpdates(this);
+		if (notificationRequest != null)
+			notificationRequest.cancel(false);
+		if (prefetchRequest != null)
+			prefetchRequest.cancel(false);
 		if (LocationService.alarmManager != null)
 			LocationService.alarmManager.cancel(LocationService.pendingIntent);
 	}
@@ -346,7 +450,19 @@ public class LocationService extends Service implements LocationListener,
 								+ location.getLatitude() + ", "
 								+ location.getLongitude() + ")");
 			currentLocation = location;
-			checkNotifications();
+			// Only recheck when the user has moved far enough for the travel
+			// time to change, so jittery fixes do not trigger new requests.
+			// The minute alarm checks regardless.
+			final String travelType = getSharedPreferences(
+					LocationService.PREF, 0).getString("TransportPreference",
+					"driving");
+			if (checkedLocation == null
+					|| location.distanceTo(checkedLocation) > TravelTimeCache
+							.getMovementThreshold(travelType))
+			{
+				checkedLocation = location;
+				checkNotifications();
+			}
 			final ArrayList<Messenger> listenersToRemove = new ArrayList<Messenger>();
 			for (final Messenger listener : locationListenerList)
 				try
@@ -400,6 +516,109 @@ public class LocationService extends Service implements LocationListener,
 		// Nothing to do
 	}
 
+	/**
+	 * Prefetches the travel times to the next {@link #PREFETCH_COUNT} events
+	 * with a location, so that the notification check, widget and main screen
+	 * find them ready in the travel time cache. Each event is refreshed more
+	 * often the closer it is: every few minutes inside the notify window and
+	 * hourly for events tomorrow. All events due for a refresh are retrieved
+	 * with a single request. An event only counts as refreshed once its
+	 * travel time has actually been retrieved, so failed events are retried
+	 * on the next check.
+	 * 
+	 * @param data
+	 *            cursor over the upcoming events, ordered by start time
+	 * @param travelType
+	 *            transportation mode to use
+	 * @param notifyTimeInMin
+	 *            notify time preference in minutes
+	 */
+	private void prefetchTravelTimes(final Cursor data,
+			final String travelType, final int notifyTimeInMin)
+	{
+		if (currentLocation == null)
+			return;
+		if (prefetchRequest != null)
+			return;
+		// Travel times are only valid near their origin, so start over once
+		// the user has moved far enough to invalidate them
+		if (prefetchOrigin == null
+				|| currentLocation.distanceTo(prefetchOrigin) > TravelTimeCache
+						.getMovementThreshold(travelType))
+		{
+			prefetchTimes.clear();
+			prefetchOrigin = currentLocation;
+		}
+		final int idColumnIndex = data.getColumnIndex(BaseColumns._ID);
+		final int locationColumnIndex = data
+				.getColumnIndex(CalendarContract.Events.EVENT_LOCATION);
+		final int startTimeColumnIndex = data
+				.getColumnIndex(CalendarContract.Events.DTSTART);
+		final long now = System.currentTimeMillis();
+		final long elapsedNow = SystemClock.elapsedRealtime();
+		final HashMap<Long, Long> nextPrefetchTimes = new HashMap<Long, Long>();
+		final ArrayList<Long> ids = new ArrayList<Long>();
+		final ArrayList<String> destinations = new ArrayList<String>();
+		final ArrayList<Long> ttls = new ArrayList<Long>();
+		int locatedCount = 0;
+		for (boolean hasEvent = data.moveToFirst(); hasEvent
+				&& locatedCount < LocationService.PREFETCH_COUNT; hasEvent = data
+				.moveToNext())
+		{
+			final String location = data.getString(locationColumnIndex);
+			if (location == null || location.trim().length() == 0)
+				continue;
+			locatedCount++;
+			final long id = data.getLong(idColumnIndex);
+			final long interval = LocationService.getPrefetchInterval(
+					data.getLong(startTimeColumnIndex) - now, notifyTimeInMin);
+			final Long lastPrefetch = prefetchTimes.get(id);
+			if (lastPrefetch != null && elapsedNow - lastPrefetch < interval)
+			{
+				nextPrefetchTimes.put(id, lastPrefetch);
+				continue;
+			}
+			// Keep the last successful prefetch until this one succeeds
+			if (lastPrefetch != null)
+				nextPrefetchTimes.put(id, lastPrefetch);
+			ids.add(id);
+			destinations.add(location);
+			ttls.add(interval + LocationService.PREFETCH_TTL_MARGIN);
+		}
+		// Forget events which are no longer among the next few
+		prefetchTimes = nextPrefetchTimes;
+		if (destinations.isEmpty())
+			return;
+		if (BuildConfig.DEBUG)
+			Log.d(LocationService.TAG, "Prefetching " + destinations.size()
+					+ " travel times");
+		final long[] ttlArray = new long[ttls.size()];
+		for (int h = 0; h < ttlArray.length; h++)
+			ttlArray[h] = ttls.get(h);
+		final Location origin = currentLocation;
+		prefetchRequest = RoutingExecutor.submit(new Callable<boolean[]>()
+		{
+			@Override
+			public boolean[] call()
+			{
+				return RouteInformation.prefetchDurations(origin,
+						destinations, ttlArray, travelType);
+			}
+		}, handler, new RoutingExecutor.Callback<boolean[]>()
+		{
+			@Override
+			public void onResult(final boolean[] fetched)
+			{
+				prefetchRequest = null;
+				if (fetched == null)
+					return;
+				for (int h = 0; h < fetched.length; h++)
+					if (fetched[h])
+						prefetchTimes.put(ids.get(h), elapsedNow);
+			}
+		});
+	}
+
 	/**
 	 * Registers a new component as wanting to receive location updates. Kicks
 	 * off an initial GPS Provider location request to ensure a good initial
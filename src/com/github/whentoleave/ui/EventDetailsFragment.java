@@ -1,6 +1,7 @@
 package com.github.whentoleave.ui;
 
 import java.util.Date;
+import java.util.concurrent.Future;
 
 import android.app.Activity;
 import android.app.LoaderManager.LoaderCallbacks;
@@ -12,6 +13,7 @@ import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.provider.BaseColumns;
 import android.provider.CalendarContract;
 import android.text.format.DateFormat;
@@ -24,6 +26,7 @@ import android.widget.TextView;
 
 import com.github.whentoleave.R;
 import com.github.whentoleave.maps.RouteInformation;
+import com.github.whentoleave.maps.RoutingExecutor;
 import com.google.android.maps.GeoPoint;
 
 /**
@@ -37,11 +40,21 @@ public class EventDetailsFragment extends Activity implements
 	 * Cursor Adapter which holds the latest contraction
 	 */
 	private CursorAdapter adapter;
+	/**
+	 * Handler used to receive asynchronous geocoding results on the main
+	 * thread
+	 */
+	private final Handler handler = new Handler();
+	/**
+	 * Pending geocoding request for the map button, if any
+	 */
+	private Future<GeoPoint> mapRequest = null;
 
 	@Override
 	public void onCreate(final Bundle savedInstanceState)
 	{
 		super.onCreate(savedInstanceState);
+		RouteInformation.init(this);
 		setContentView(R.layout.event_details);
 		adapter = new CursorAdapter(this, null, 0)
 		{
@@ -77,6 +90,19 @@ public class EventDetailsFragment extends Activity implements
 				null, null, null);
 	}
 
+	/**
+	 * Cancels any pending geocoding request, so that the map is not opened
+	 * once the user has left
+	 */
+	@Override
+	protected void onDestroy()
+	{
+		if (mapRequest != null)
+			mapRequest.cancel(false);
+		mapRequest = null;
+		super.onDestroy();
+	}
+
 	@Override
 	public void onLoaderReset(final Loader<Cursor> loader)
 	{
@@ -131,14 +157,36 @@ public class EventDetailsFragment extends Activity implements
 				@Override
 				public void onClick(final View v)
 				{
-					final GeoPoint geoPoint = RouteInformation
-							.getLocation(location);
-					final String latLng = geoPoint.getLatitudeE6() / 1E6 + ","
-							+ geoPoint.getLongitudeE6() / 1E6;
-					final Intent map = new Intent(Intent.ACTION_VIEW, Uri
-							.parse("geo:" + latLng + "?z=16&q="
-									+ RouteInformation.formatAddress(location)));
-					startActivity(map);
+					// Ignore repeated taps while the address is being
+					// geocoded
+					if (mapRequest != null)
+						return;
+					eventDetailsMapButton.setEnabled(false);
+					mapRequest = RouteInformation.getLocationAsync(location,
+							handler, new RoutingExecutor.Callback<GeoPoint>()
+							{
+								@Override
+								public void onResult(final GeoPoint geoPoint)
+								{
+									mapRequest = null;
+									eventDetailsMapButton.setEnabled(true);
+									if (isFinishing())
+										return;
+									// Let the Maps application search for the
+									// address if we could not find it
+									String latLng = "0,0";
+									if (geoPoint != null)
+										latLng = geoPoint.getLatitudeE6() / 1E6
+												+ "," + geoPoint.getLongitudeE6()
+												/ 1E6;
+									final Intent map = new Intent(
+											Intent.ACTION_VIEW, Uri.parse("geo:"
+													+ latLng + "?z=16&q="
+													+ RouteInformation
+															.formatAddress(location)));
+									startActivity(map);
+								}
+							});
 				}
 			});
 			eventDetailsMapButton.setVisibility(View.VISIBLE);
@@ -1,8 +1,14 @@
 package com.github.whentoleave.ui;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import android.app.Fragment;
 import android.app.LoaderManager.LoaderCallbacks;
@@ -11,7 +17,6 @@ import android.content.CursorLoader;
 import android.content.Intent;
 import android.content.Loader;
 import android.content.SharedPreferences;
-import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.drawable.Drawable;
 import android.location.Location;
@@ -20,6 +25,7 @@ import android.os.Handler;
 import android.os.Message;
 import android.provider.BaseColumns;
 import android.provider.CalendarContract;
+import android.text.TextUtils;
 import android.text.format.DateFormat;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -31,8 +37,10 @@ import com.github.whentoleave.BuildConfig;
 import com.github.whentoleave.R;
 import com.github.whentoleave.maps.ItemizedOverlay;
 import com.github.whentoleave.maps.MapRouteOverlay;
+import com.github.whentoleave.maps.MarkerRenderer;
 import com.github.whentoleave.maps.Route;
 import com.github.whentoleave.maps.RouteInformation;
+import com.github.whentoleave.maps.RoutingExecutor;
 import com.github.whentoleave.service.LocationService;
 import com.github.whentoleave.service.LocationServiceConnection;
 import com.google.android.maps.GeoPoint;
@@ -71,6 +79,99 @@ public class EventMapFragment extends Fragment implements
 		RED
 	}
 
+	/**
+	 * Snapshot of an event read from the loader's cursor, along with the
+	 * results of geocoding and routing to it
+	 */
+	private static final class MapEvent
+	{
+		/**
+		 * Event ID
+		 */
+		final long mId;
+		/**
+		 * Event location, as entered by the user
+		 */
+		final String mLocation;
+		/**
+		 * Color of the event's marker, if it has one
+		 */
+		COLOR mMarkerColor = null;
+		/**
+		 * Number shown on the event's marker, if it has one
+		 */
+		int mMarkerNumber = 0;
+		/**
+		 * Item plotting the event on the map, or null if it was not plotted yet
+		 */
+		OverlayItem mOverlayItem = null;
+		/**
+		 * Geocoded location of the event, or null if it could not be geocoded
+		 */
+		GeoPoint mPoint = null;
+		/**
+		 * Event start time
+		 */
+		final long mStartTime;
+		/**
+		 * Event title
+		 */
+		final String mTitle;
+		/**
+		 * Travel time to the event in minutes, or -1 if it was not computed
+		 */
+		int mTravelTime = -1;
+
+		/**
+		 * Reads the event the given cursor is pointing to
+		 * 
+		 * @param data
+		 *            cursor pointing to the event
+		 */
+		MapEvent(final Cursor data)
+		{
+			mId = data.getLong(data.getColumnIndex(BaseColumns._ID));
+			mLocation = data.getString(data
+					.getColumnIndex(CalendarContract.Events.EVENT_LOCATION));
+			mStartTime = data.getLong(data
+					.getColumnIndex(CalendarContract.Events.DTSTART));
+			mTitle = data.getString(data
+					.getColumnIndex(CalendarContract.Events.TITLE));
+		}
+
+		/**
+		 * Reuses the results of plotting a previous snapshot of this event:
+		 * its geocoded location and travel time if its location is unchanged,
+		 * and its overlay item if neither its start time nor its title changed
+		 * either
+		 * 
+		 * @param previous
+		 *            previous snapshot of the event, with the same ID
+		 */
+		void reuse(final MapEvent previous)
+		{
+			if (!TextUtils.equals(mLocation, previous.mLocation))
+				return;
+			mPoint = previous.mPoint;
+			mTravelTime = previous.mTravelTime;
+			if (mStartTime != previous.mStartTime
+					|| !TextUtils.equals(mTitle, previous.mTitle))
+				return;
+			mOverlayItem = previous.mOverlayItem;
+			mMarkerColor = previous.mMarkerColor;
+			mMarkerNumber = previous.mMarkerNumber;
+		}
+	}
+
+	/**
+	 * Maximum number of events geocoded in parallel
+	 */
+	private static final int GEOCODE_CONCURRENCY = 4;
+	/**
+	 * Delay in milliseconds during which geocoding results are collected into
+	 * a single update of the map
+	 */
+	private static final long PLOT_BATCH_DELAY = 100;
 	/**
 	 * Preferences name to load settings from
 	 */
@@ -92,23 +193,10 @@ public class EventMapFragment extends Fragment implements
 	 */
 	private Drawable gpsLocationIcon;
 	/**
-	 * Default (non-numbered) green square
+	 * Handler used to receive asynchronous geocoding and routing results on
+	 * the main thread
 	 */
-	private Drawable greenSquareDefault;
-	/**
-	 * Numbered green squares where their number = index+1 (i.e., [0] == number
-	 * 1)
-	 */
-	private Drawable greenSquaresNumbered[];
-	/**
-	 * Default (non-numbered) grey square
-	 */
-	private Drawable greySquareDefault;
-	/**
-	 * Numbered grey squares where their number = index+1 (i.e., [0] == number
-	 * 1)
-	 */
-	private Drawable greySquaresNumbered[];
+	private final Handler handler = new Handler();
 	/**
 	 * Overlay for the GPS location
 	 */
@@ -132,144 +220,110 @@ public class EventMapFragment extends Fragment implements
 	 */
 	private final Route mRoute = null;
 	/**
-	 * Default (non-numbered) orange square
+	 * Update of the map waiting for more geocoding results, if any
 	 */
-	private Drawable orangeSquareDefault;
+	private Runnable pendingPlot = null;
 	/**
-	 * Numbered orange squares where their number = index+1 (i.e., [0] == number
-	 * 1)
+	 * Pending request geocoding and routing the events to plot, if any
 	 */
-	private Drawable orangeSquaresNumbered[];
+	private Future<Integer> plotRequest = null;
 	/**
-	 * Default (non-numbered) red square
+	 * Events being plotted, whose locations are filled in as they are
+	 * geocoded. Kept once plotted so that the next load of the events only
+	 * geocodes and replots the events that changed.
 	 */
-	private Drawable redSquareDefault;
-	/**
-	 * Numbered red squares where their number = index+1 (i.e., [0] == number 1)
-	 */
-	private Drawable redSquaresNumbered[];
+	private ArrayList<MapEvent> plottedEvents = null;
 	/**
 	 * Connection to the persistent, authorized service
 	 */
 	private final LocationServiceConnection service = new LocationServiceConnection(
 			new Handler(this));
+	/**
+	 * Whether the map has been centered on the next event since it became
+	 * the next event
+	 */
+	private boolean zoomedToNextEvent = false;
+
+	/**
+	 * Cancels any geocoding and routing of the events and any pending update
+	 * of the map
+	 */
+	private void cancelPlotting()
+	{
+		if (plotRequest != null)
+			plotRequest.cancel(false);
+		plotRequest = null;
+		if (pendingPlot != null)
+			handler.removeCallbacks(pendingPlot);
+		pendingPlot = null;
+	}
+
+	/**
+	 * Creates the marker for a given event.
+	 * 
+	 * @param event
+	 *            the event to create a marker for
+	 * 
+	 * @param icon
+	 *            The Marker that will represent the event on the map
+	 * @return the marker, or null if the event's location was not geocoded
+	 */
+	private OverlayItem createOverlayItem(final MapEvent event,
+			final Drawable icon)
+	{
+		final GeoPoint geoPoint = event.mPoint;
+		if (geoPoint == null)
+			return null;
+		final String formattedStartTime = DateFormat.format(
+				"hh:mma 'on' EEEE, MMM dd", new Date(event.mStartTime))
+				.toString();
+		final OverlayItem overlayItem = new OverlayItem(geoPoint,
+				event.mTitle, formattedStartTime);
+		overlayItem.setMarker(icon);
+		return overlayItem;
+	}
 
 	/**
-	 * Generates all of the icons that could be used in this
+	 * Loads the icon representing the current GPS location
 	 */
 	private void generateDrawables()
 	{
-		final Resources resources = getResources();
-		// GPS and Colored Square Resources
-		gpsLocationIcon = resources.getDrawable(R.drawable.ic_gps_location);
-		// Green Numbered Square Resources
-		greenSquareDefault = resources.getDrawable(R.drawable.ic_green_square);
-		greenSquaresNumbered = new Drawable[10];
-		greenSquaresNumbered[0] = resources
-				.getDrawable(R.drawable.ic_green_square_1);
-		greenSquaresNumbered[1] = resources
-				.getDrawable(R.drawable.ic_green_square_2);
-		greenSquaresNumbered[2] = resources
-				.getDrawable(R.drawable.ic_green_square_3);
-		greenSquaresNumbered[3] = resources
-				.getDrawable(R.drawable.ic_green_square_4);
-		greenSquaresNumbered[4] = resources
-				.getDrawable(R.drawable.ic_green_square_5);
-		greenSquaresNumbered[5] = resources
-				.getDrawable(R.drawable.ic_green_square_6);
-		greenSquaresNumbered[6] = resources
-				.getDrawable(R.drawable.ic_green_square_7);
-		greenSquaresNumbered[7] = resources
-				.getDrawable(R.drawable.ic_green_square_8);
-		greenSquaresNumbered[8] = resources
-				.getDrawable(R.drawable.ic_green_square_9);
-		greenSquaresNumbered[9] = resources
-				.getDrawable(R.drawable.ic_green_square_10);
-		// Orange Numbered Square Resources
-		orangeSquareDefault = resources
-				.getDrawable(R.drawable.ic_orange_square);
-		orangeSquaresNumbered = new Drawable[10];
-		orangeSquaresNumbered[0] = resources
-				.getDrawable(R.drawable.ic_orange_square_1);
-		orangeSquaresNumbered[1] = resources
-				.getDrawable(R.drawable.ic_orange_square_2);
-		orangeSquaresNumbered[2] = resources
-				.getDrawable(R.drawable.ic_orange_square_3);
-		orangeSquaresNumbered[3] = resources
-				.getDrawable(R.drawable.ic_orange_square_4);
-		orangeSquaresNumbered[4] = resources
-				.getDrawable(R.drawable.ic_orange_square_5);
-		orangeSquaresNumbered[5] = resources
-				.getDrawable(R.drawable.ic_orange_square_6);
-		orangeSquaresNumbered[6] = resources
-				.getDrawable(R.drawable.ic_orange_square_7);
-		orangeSquaresNumbered[7] = resources
-				.getDrawable(R.drawable.ic_orange_square_8);
-		orangeSquaresNumbered[8] = resources
-				.getDrawable(R.drawable.ic_orange_square_9);
-		orangeSquaresNumbered[9] = resources
-				.getDrawable(R.drawable.ic_orange_square_10);
-		// Red Numbered Square Resources
-		redSquareDefault = resources.getDrawable(R.drawable.ic_red_square);
-		redSquaresNumbered = new Drawable[10];
-		redSquaresNumbered[0] = resources
-				.getDrawable(R.drawable.ic_red_square_1);
-		redSquaresNumbered[1] = resources
-				.getDrawable(R.drawable.ic_red_square_2);
-		redSquaresNumbered[2] = resources
-				.getDrawable(R.drawable.ic_red_square_3);
-		redSquaresNumbered[3] = resources
-				.getDrawable(R.drawable.ic_red_square_4);
-		redSquaresNumbered[4] = resources
-				.getDrawable(R.drawable.ic_red_square_5);
-		redSquaresNumbered[5] = resources
-				.getDrawable(R.drawable.ic_red_square_6);
-		redSquaresNumbered[6] = resources
-				.getDrawable(R.drawable.ic_red_square_7);
-		redSquaresNumbered[7] = resources
-				.getDrawable(R.drawable.ic_red_square_8);
-		redSquaresNumbered[8] = resources
-				.getDrawable(R.drawable.ic_red_square_9);
-		redSquaresNumbered[9] = resources
-				.getDrawable(R.drawable.ic_red_square_10);
-		// Grey Numbered Square Resources
-		greySquareDefault = resources.getDrawable(R.drawable.ic_grey_square);
-		greySquaresNumbered = new Drawable[10];
-		greySquaresNumbered[0] = resources
-				.getDrawable(R.drawable.ic_grey_square_1);
-		greySquaresNumbered[1] = resources
-				.getDrawable(R.drawable.ic_grey_square_2);
-		greySquaresNumbered[2] = resources
-				.getDrawable(R.drawable.ic_grey_square_3);
-		greySquaresNumbered[3] = resources
-				.getDrawable(R.drawable.ic_grey_square_4);
-		greySquaresNumbered[4] = resources
-				.getDrawable(R.drawable.ic_grey_square_5);
-		greySquaresNumbered[5] = resources
-				.getDrawable(R.drawable.ic_grey_square_6);
-		greySquaresNumbered[6] = resources
-				.getDrawable(R.drawable.ic_grey_square_7);
-		greySquaresNumbered[7] = resources
-				.getDrawable(R.drawable.ic_grey_square_8);
-		greySquaresNumbered[8] = resources
-				.getDrawable(R.drawable.ic_grey_square_9);
-		greySquaresNumbered[9] = resources
-				.getDrawable(R.drawable.ic_grey_square_10);
-		// Set bounds for the icons since mapview doesn't like to place them
-		// without explicit bounds
-		gpsLocationIcon.setBounds(0, 0, 36, 36);
-		greenSquareDefault.setBounds(0, 0, 36, 36);
-		for (final Drawable greenSquare : greenSquaresNumbered)
-			greenSquare.setBounds(0, 0, 36, 36);
-		orangeSquareDefault.setBounds(0, 0, 36, 36);
-		for (final Drawable orangeSquare : orangeSquaresNumbered)
-			orangeSquare.setBounds(0, 0, 36, 36);
-		redSquareDefault.setBounds(0, 0, 36, 36);
-		for (final Drawable redSquare : redSquaresNumbered)
-			redSquare.setBounds(0, 0, 36, 36);
-		greySquareDefault.setBounds(0, 0, 36, 36);
-		for (final Drawable greySquare : greySquaresNumbered)
-			greySquare.setBounds(0, 0, 36, 36);
+		gpsLocationIcon = getResources().getDrawable(R.drawable.ic_gps_location);
+		// Set bounds for the icon since mapview doesn't like to place it
+		// without explicit bounds, sized like the event markers
+		final int size = MarkerRenderer.getSize(getResources());
+		gpsLocationIcon.setBounds(0, 0, size, size);
+	}
+
+	/**
+	 * Gets the marker for an event, rendered on demand and shared through the
+	 * {@link MarkerRenderer} cache
+	 * 
+	 * @param color
+	 *            color of the marker
+	 * @param number
+	 *            number shown on the marker, or 0 for none
+	 * @return the marker
+	 */
+	private Drawable getMarker(final COLOR color, final int number)
+	{
+		final int argb;
+		switch (color)
+		{
+			case GREEN:
+				argb = 0xffc8de73;
+				break;
+			case ORANGE:
+				argb = 0xfffa9f4d;
+				break;
+			case RED:
+				argb = 0xffdf6464;
+				break;
+			default:
+				argb = 0xffeeeeee;
+				break;
+		}
+		return MarkerRenderer.getMarker(getResources(), argb, number);
 	}
 
 	@Override
@@ -286,8 +340,9 @@ public class EventMapFragment extends Fragment implements
 			final OverlayItem mGpsOverlayItem = new OverlayItem(
 					gpsLocationPoint, "", "");
 			mGpsOverlayItem.setMarker(gpsLocationIcon);
-			locationOverlay.clearOverlay();
-			locationOverlay.addOverlay(mGpsOverlayItem, -1);
+			locationOverlay.setItems(
+					Collections.singletonList(mGpsOverlayItem),
+					new long[] { -1 });
 			return true;
 		}
 		return false;
@@ -319,7 +374,8 @@ public class EventMapFragment extends Fragment implements
 		mapOverlays.add(mapRouteOverlay);
 		locationOverlay = new ItemizedOverlay(gpsLocationIcon, getActivity());
 		mapOverlays.add(locationOverlay);
-		eventOverlay = new ItemizedOverlay(greySquareDefault, getActivity());
+		eventOverlay = new ItemizedOverlay(getMarker(COLOR.GREY, 0),
+				getActivity());
 		mapOverlays.add(eventOverlay);
 		
 		// Data adapter
@@ -393,6 +449,8 @@ public class EventMapFragment extends Fragment implements
 	public void onDestroy()
 	{	
 		super.onDestroy();
+		cancelPlotting();
+		plottedEvents = null;
 		service.unregister();
 		getActivity().unbindService(service);
 		mapContainer.removeView(mapView);
@@ -424,6 +482,8 @@ public class EventMapFragment extends Fragment implements
 	public void onLoaderReset(final Loader<Cursor> loader)
 	{
 		adapter.swapCursor(null);
+		cancelPlotting();
+		plottedEvents = null;
 		eventOverlay.clearOverlay();
 	}
 
@@ -436,13 +496,18 @@ public class EventMapFragment extends Fragment implements
 		final String travelType = settings.getString("TransportPreference",
 				"driving");
 		final int notifyTimeInMin = settings.getInt("NotifyTime", 3600) / 60;
-		long nextEventWithLocationId = -1;
-		int h = 1;
 		Log.v(EventMapFragment.TAG,
 				"refreshData: size of events = " + data.getCount());
-		COLOR iconColor = COLOR.GREEN;
-		GeoPoint nextEventPoint = null;
-		eventOverlay.clearOverlay();
+		// Read the events here, leaving geocoding and routing to a background
+		// thread. Events unchanged since the last load keep their location and
+		// marker, events whose locations are held in memory are plotted right
+		// away and the rest as they are geocoded.
+		final HashMap<Long, MapEvent> previousEvents = new HashMap<Long, MapEvent>();
+		if (plottedEvents != null)
+			for (final MapEvent event : plottedEvents)
+				previousEvents.put(event.mId, event);
+		final ArrayList<MapEvent> events = new ArrayList<MapEvent>();
+		final ArrayList<MapEvent> eventsToGeocode = new ArrayList<MapEvent>();
 		while (data.moveToNext())
 		{
 			final int locationColumnIndex = data
@@ -451,26 +516,117 @@ public class EventMapFragment extends Fragment implements
 			// Skip events without a location
 			if (location.equals(""))
 				continue;
-			final int idColumnIndex = data.getColumnIndex(BaseColumns._ID);
-			final long currentId = data.getLong(idColumnIndex);
-			if (nextEventWithLocationId == -1)
+			final MapEvent event = new MapEvent(data);
+			final MapEvent previous = previousEvents.get(event.mId);
+			if (previous != null)
+				event.reuse(previous);
+			if (event.mPoint == null)
+				event.mPoint = RouteInformation.getCachedLocation(location);
+			if (event.mPoint == null)
+				eventsToGeocode.add(event);
+			events.add(event);
+		}
+		// Only center on the next event again if it is another event
+		if (events.isEmpty() || plottedEvents == null
+				|| plottedEvents.isEmpty()
+				|| plottedEvents.get(0).mId != events.get(0).mId)
+			zoomedToNextEvent = false;
+		cancelPlotting();
+		plottedEvents = events;
+		plotEvents(events, notifyTimeInMin);
+		final Location gpsLocation = mGpsLocation;
+		final RouteInformation.LocationListener listener = new RouteInformation.LocationListener()
+		{
+			@Override
+			public void onLocation(final int index, final GeoPoint point)
 			{
-				nextEventWithLocationId = currentId;
-				long leaveInMinutes = 0;
-				if (mGpsLocation != null)
+				handler.post(new Runnable()
 				{
-					final int startTimeColumnIndex = data
-							.getColumnIndex(CalendarContract.Events.DTSTART);
-					final long startTime = data.getLong(startTimeColumnIndex);
-					final int travelTime = RouteInformation.getDuration(
-							mGpsLocation, location, travelType);
-					final long minutesUntilEvent = (startTime - new Date()
-							.getTime()) / 60000;
-					leaveInMinutes = minutesUntilEvent - travelTime;
-					if (BuildConfig.DEBUG)
-						Log.d(EventMapFragment.TAG, "getting leaveInMinutes: "
-								+ leaveInMinutes);
-				}
+					@Override
+					public void run()
+					{
+						if (plottedEvents != events)
+							return;
+						final MapEvent event = eventsToGeocode.get(index);
+						if (point == null || point.equals(event.mPoint))
+							return;
+						event.mPoint = point;
+						schedulePlot(events, notifyTimeInMin);
+					}
+				});
+			}
+		};
+		plotRequest = RoutingExecutor.submit(new Callable<Integer>()
+		{
+			@Override
+			public Integer call()
+			{
+				final ArrayList<String> locations = new ArrayList<String>(
+						eventsToGeocode.size());
+				for (final MapEvent event : eventsToGeocode)
+					locations.add(event.mLocation);
+				if (!locations.isEmpty())
+					RouteInformation.getLocations(locations,
+							EventMapFragment.GEOCODE_CONCURRENCY, listener);
+				if (gpsLocation == null || events.isEmpty())
+					return -1;
+				return RouteInformation.getDuration(gpsLocation,
+						events.get(0).mLocation, travelType);
+			}
+		}, handler, new RoutingExecutor.Callback<Integer>()
+		{
+			@Override
+			public void onResult(final Integer travelTime)
+			{
+				// Every geocoding result was posted before this one
+				plotRequest = null;
+				if (plottedEvents != events)
+					return;
+				// The travel time is null if the request failed
+				if (!events.isEmpty() && travelTime != null)
+					events.get(0).mTravelTime = travelTime;
+				if (pendingPlot != null)
+					handler.removeCallbacks(pendingPlot);
+				pendingPlot = null;
+				plotEvents(events, notifyTimeInMin);
+			}
+		});
+	}
+
+	/**
+	 * Plots the given events on the map, coloring the next event by how soon
+	 * the user needs to leave for it, or grey while its travel time is
+	 * unknown. Events keep their overlay item unless their marker changed, so
+	 * unchanged events are not replotted.
+	 * 
+	 * @param events
+	 *            events to plot, in start time order; those not yet geocoded
+	 *            are left out
+	 * @param notifyTimeInMin
+	 *            notify time preference in minutes
+	 */
+	private void plotEvents(final ArrayList<MapEvent> events,
+			final int notifyTimeInMin)
+	{
+		int h = 1;
+		COLOR iconColor = COLOR.GREEN;
+		GeoPoint nextEventPoint = null;
+		// Collect all of the markers so the overlay is populated only once
+		final ArrayList<OverlayItem> overlayItems = new ArrayList<OverlayItem>(
+				events.size());
+		final long[] eventIds = new long[events.size()];
+		for (final MapEvent event : events)
+		{
+			// The next event can only be colored once its travel time is known
+			if (h == 1 && event.mTravelTime >= 0)
+			{
+				final long minutesUntilEvent = (event.mStartTime - new Date()
+						.getTime()) / 60000;
+				final long leaveInMinutes = minutesUntilEvent
+						- event.mTravelTime;
+				if (BuildConfig.DEBUG)
+					Log.d(EventMapFragment.TAG, "getting leaveInMinutes: "
+							+ leaveInMinutes);
 				if (leaveInMinutes < notifyTimeInMin * .33333)
 					iconColor = COLOR.RED;
 				else if (leaveInMinutes < notifyTimeInMin * .6666)
@@ -483,85 +639,63 @@ public class EventMapFragment extends Fragment implements
 			}
 			else
 				iconColor = COLOR.GREY;
-			if (h <= 10)
-				switch (iconColor)
-				{
-					case GREEN:
-						nextEventPoint = plotEvent(data,
-								greenSquaresNumbered[h - 1]);
-						break;
-					case ORANGE:
-						nextEventPoint = plotEvent(data,
-								orangeSquaresNumbered[h - 1]);
-						break;
-					case RED:
-						nextEventPoint = plotEvent(data,
-								redSquaresNumbered[h - 1]);
-						break;
-					default:
-						plotEvent(data, greySquaresNumbered[h - 1]);
-						break;
-				}
-			else
-				switch (iconColor)
-				{
-					case GREEN:
-						nextEventPoint = plotEvent(data, greenSquareDefault);
-						break;
-					case ORANGE:
-						nextEventPoint = plotEvent(data, orangeSquareDefault);
-						break;
-					case RED:
-						nextEventPoint = plotEvent(data, redSquareDefault);
-						break;
-					default:
-						plotEvent(data, greySquareDefault);
-						break;
-				}
+			// Only render markers for events which can be plotted, and only
+			// when they are first plotted or their marker changed
+			if (event.mPoint != null
+					&& (event.mOverlayItem == null
+							|| event.mMarkerColor != iconColor
+							|| event.mMarkerNumber != h))
+			{
+				event.mOverlayItem = createOverlayItem(event,
+						getMarker(iconColor, h));
+				event.mMarkerColor = iconColor;
+				event.mMarkerNumber = h;
+			}
+			if (event.mOverlayItem != null)
+			{
+				eventIds[overlayItems.size()] = event.mId;
+				overlayItems.add(event.mOverlayItem);
+			}
+			if (h == 1)
+				nextEventPoint = event.mPoint;
 			Log.v(EventMapFragment.TAG, "refreshData: Plotting Event: " + h++);
 		}
-		if (nextEventPoint != null)
+		eventOverlay.setItems(overlayItems,
+				Arrays.copyOf(eventIds, overlayItems.size()));
+		// Center on the next event as soon as its location is known, but only
+		// once so later updates do not undo the user's panning
+		if (nextEventPoint != null && !zoomedToNextEvent)
+		{
 			zoomTo(nextEventPoint);
+			zoomedToNextEvent = true;
+		}
 	}
 
 	/**
-	 * Plots a given event on the map.
-	 * 
-	 * @param data
-	 *            cursor pointing to the event to plot
+	 * Schedules an update of the map with the events geocoded so far, unless
+	 * one is already pending, so that results arriving close together are
+	 * plotted in a single update
 	 * 
-	 * @param icon
-	 *            The Marker that will represent the event on the map
-	 * @return the point just plotted
+	 * @param events
+	 *            events to plot
+	 * @param notifyTimeInMin
+	 *            notify time preference in minutes
 	 */
-	private GeoPoint plotEvent(final Cursor data, final Drawable icon)
+	private void schedulePlot(final ArrayList<MapEvent> events,
+			final int notifyTimeInMin)
 	{
-		final int locationColumnIndex = data
-				.getColumnIndex(CalendarContract.Events.EVENT_LOCATION);
-		final String location = data.getString(locationColumnIndex);
-		// Obtain the latitude and longitude
-		final GeoPoint geoPoint = RouteInformation.getLocation(location);
-		if (geoPoint != null)
+		if (pendingPlot != null)
+			return;
+		pendingPlot = new Runnable()
 		{
-			// Create a marker for the point
-			final int titleColumnIndex = data
-					.getColumnIndex(CalendarContract.Events.TITLE);
-			final String title = data.getString(titleColumnIndex);
-			final int startTimeColumnIndex = data
-					.getColumnIndex(CalendarContract.Events.DTSTART);
-			final long startTime = data.getLong(startTimeColumnIndex);
-			final String formattedStartTime = DateFormat.format(
-					"hh:mma 'on' EEEE, MMM dd", new Date(startTime)).toString();
-			final OverlayItem overlayItem = new OverlayItem(geoPoint, title,
-					formattedStartTime);
-			overlayItem.setMarker(icon);
-			// Add the point to the map
-			final int idColumnIndex = data.getColumnIndex(BaseColumns._ID);
-			final long eventId = data.getLong(idColumnIndex);
-			eventOverlay.addOverlay(overlayItem, eventId);
-			return geoPoint;
-		}
-		return null;
+			@Override
+			public void run()
+			{
+				pendingPlot = null;
+				plotEvents(events, notifyTimeInMin);
+			}
+		};
+		handler.postDelayed(pendingPlot, EventMapFragment.PLOT_BATCH_DELAY);
 	}
 
 	/**
@@ -3,6 +3,7 @@ package com.github.whentoleave.ui;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.Future;
 
 import android.app.ActionBar;
 import android.app.ActionBar.Tab;
@@ -33,6 +34,8 @@ import android.widget.Button;
 
 import com.github.whentoleave.R;
 import com.github.whentoleave.maps.RouteInformation;
+import com.github.whentoleave.maps.RoutingExecutor;
+import com.github.whentoleave.maps.TravelTime;
 import com.github.whentoleave.service.LocationService;
 import com.github.whentoleave.service.LocationServiceConnection;
 import com.google.android.maps.MapActivity;
@@ -248,6 +251,14 @@ public class MainActivity extends MapActivity implements Handler.Callback
 	 * Current location of the device
 	 */
 	private Location currentLocation = null;
+	/**
+	 * Handler used to receive asynchronous routing results on the main thread
+	 */
+	private final Handler handler = new Handler();
+	/**
+	 * Pending travel time request for the Action Bar indicator, if any
+	 */
+	private Future<TravelTime> indicatorRequest = null;
 	/**
 	 * Tab/ViewPager adapter
 	 */
@@ -285,6 +296,7 @@ public class MainActivity extends MapActivity implements Handler.Callback
 	public void onCreate(final Bundle savedInstanceState)
 	{
 		super.onCreate(savedInstanceState);
+		RouteInformation.init(this);
 		
 		// The Action Bar is a window feature. The feature must be requested
 	    // before setting a content view. Normally this is set automatically
@@ -350,6 +362,8 @@ public class MainActivity extends MapActivity implements Handler.Callback
 	protected void onDestroy()
 	{
 		super.onDestroy();
+		if (indicatorRequest != null)
+			indicatorRequest.cancel(false);
 		service.unregister();
 		unbindService(service);
 	}
@@ -431,7 +445,8 @@ public class MainActivity extends MapActivity implements Handler.Callback
 	}
 
 	/**
-	 * Sets the text and color of the Action Bar
+	 * Sets the text and color of the Action Bar once the travel time to the
+	 * given event has been computed in the background
 	 * 
 	 * @param data
 	 *            cursor pointing to the event
@@ -449,11 +464,43 @@ public class MainActivity extends MapActivity implements Handler.Callback
 		final int startTimeColumnIndex = data
 				.getColumnIndex(CalendarContract.Events.DTSTART);
 		final long startTime = data.getLong(startTimeColumnIndex);
-		final int travelTime = RouteInformation.getDuration(currentLocation,
-				location, travelType);
-		final long minutesUntilEvent = (startTime - new Date().getTime()) / 60000;
-		final long leaveInMinutes = minutesUntilEvent - travelTime;
-		
+		if (indicatorRequest != null)
+			indicatorRequest.cancel(false);
+		indicatorRequest = RouteInformation.getTravelTimeAsync(
+				currentLocation, location, travelType, handler,
+				new RoutingExecutor.Callback<TravelTime>()
+				{
+					@Override
+					public void onResult(final TravelTime travelTime)
+					{
+						indicatorRequest = null;
+						final long minutesUntilEvent = (startTime - new Date()
+								.getTime()) / 60000;
+						if (travelTime == null)
+							setIndicatorTextAndColor(minutesUntilEvent,
+									notifyTimeInMin, false);
+						else
+							setIndicatorTextAndColor(minutesUntilEvent
+									- travelTime.getMinutes(), notifyTimeInMin,
+									travelTime.isEstimated());
+					}
+				});
+	}
+
+	/**
+	 * Sets the text and color of the Action Bar to reflect the given time
+	 * until the user needs to leave
+	 * 
+	 * @param leaveInMinutes
+	 *            minutes until the user needs to leave
+	 * @param notifyTimeInMin
+	 *            notify time preference in minutes
+	 * @param estimated
+	 *            whether the travel time was estimated locally
+	 */
+	private void setIndicatorTextAndColor(final long leaveInMinutes,
+			final int notifyTimeInMin, final boolean estimated)
+	{
 		final ActionBar bar = getActionBar();
 		
 		final Resources res = getResources();
@@ -469,6 +516,7 @@ public class MainActivity extends MapActivity implements Handler.Callback
 		final String formattedTime = MainActivity
 				.formatWhenToLeave(leaveInMinutes);
 		bar.setTitle("Leave "
-				+ (leaveInMinutes > 0 ? "in " + formattedTime : "Now"));
+				+ (leaveInMinutes > 0 ? "in " + (estimated ? "~" : "")
+						+ formattedTime : "Now"));
 	}
 }
\ No newline at end of file
@@ -77,10 +77,14 @@ public class NotificationUtility
 	 *            how many minutes until user needs to leave for this event
 	 * @param notifyTimeInMin
 	 *            user preference on when they would like to be notified
+	 * @param estimated
+	 *            whether the travel time was estimated locally, shown by
+	 *            prefixing the time until the user needs to leave with ~
 	 */
 	public void createSimpleNotification(final String title,
 			final long startTime, final String location,
-			final long leaveInMinutes, final int notifyTimeInMin)
+			final long leaveInMinutes, final int notifyTimeInMin,
+			final boolean estimated)
 	{
 		if (BuildConfig.DEBUG)
 			Log.d(NotificationUtility.TAG, "Creating Message: " + title);
@@ -133,8 +137,9 @@ public class NotificationUtility
 		}
 		notification.setLatestEventInfo(myContext, title,
 				"Leave "
-						+ (leaveInMinutes > 0 ? "in " + formattedTime + " - "
-								: "Now -") + location + " @" + time,
+						+ (leaveInMinutes > 0 ? "in " + (estimated ? "~" : "")
+								+ formattedTime + " - " : "Now -") + location
+						+ " @" + time,
 				makeNotificationIntent());
 		// Send the notification.
 		mNotificationManager.notify(0, notification);
@@ -2,6 +2,7 @@ package com.github.whentoleave.widget;
 
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.Future;
 
 import android.app.LoaderManager.LoaderCallbacks;
 import android.app.PendingIntent;
@@ -30,6 +31,8 @@ import android.widget.RemoteViews;
 import com.github.whentoleave.BuildConfig;
 import com.github.whentoleave.R;
 import com.github.whentoleave.maps.RouteInformation;
+import com.github.whentoleave.maps.RoutingExecutor;
+import com.github.whentoleave.maps.TravelTime;
 import com.github.whentoleave.service.LocationService;
 import com.github.whentoleave.service.LocationServiceConnection;
 import com.github.whentoleave.ui.MainActivity;
@@ -89,11 +92,19 @@ public class WidgetUpdateService extends Service implements
 	 * Current location of the device
 	 */
 	private Location currentLocation = null;
+	/**
+	 * Handler used to receive asynchronous routing results on the main thread
+	 */
+	private final Handler handler = new Handler();
 	/**
 	 * Connection to the AppService
 	 */
 	private final LocationServiceConnection service = new LocationServiceConnection(
 			new Handler(this));
+	/**
+	 * Pending travel time request for the widget update, if any
+	 */
+	private Future<TravelTime> updateRequest = null;
 
 	/**
 	 * Gets a 'base' remote view as all widgets contain the same type of
@@ -160,6 +171,8 @@ public class WidgetUpdateService extends Service implements
 	{
 		if (BuildConfig.DEBUG)
 			Log.d(WidgetUpdateService.TAG, "onDestroy");
+		if (updateRequest != null)
+			updateRequest.cancel(false);
 		service.unregister();
 		unbindService(service);
 	}
@@ -180,6 +193,7 @@ public class WidgetUpdateService extends Service implements
 	public int onStartCommand(final Intent intent, final int flags,
 			final int startId)
 	{
+		RouteInformation.init(this);
 		if (!service.isConnected())
 		{
 			if (BuildConfig.DEBUG)
@@ -193,7 +207,9 @@ public class WidgetUpdateService extends Service implements
 	}
 
 	/**
-	 * Build the RemoteViews with the most up to date information
+	 * Build the RemoteViews with the most up to date information. The travel
+	 * time to the next event is computed in the background, with the widgets
+	 * being updated once it is available.
 	 */
 	private void update()
 	{
@@ -218,25 +234,74 @@ public class WidgetUpdateService extends Service implements
 			return;
 		}
 		
-		final CharSequence leaveIn;
+		final int titleColumnIndex = data
+				.getColumnIndex(CalendarContract.Events.TITLE);
+		final String title = data.getString(titleColumnIndex);
+		final int locationColumnIndex = data
+				.getColumnIndex(CalendarContract.Events.EVENT_LOCATION);
+		final String location = data.getString(locationColumnIndex);
+		final int startTimeColumnIndex = data
+				.getColumnIndex(CalendarContract.Events.DTSTART);
+		final long startTime = data.getLong(startTimeColumnIndex);
+		if (updateRequest != null)
+			updateRequest.cancel(false);
 		if (currentLocation == null)
+		{
+			updateRequest = null;
+			update(views, title, location, startTime, null);
+			return;
+		}
+		final SharedPreferences settings = getSharedPreferences(
+				WidgetUpdateService.PREF, 0);
+		final String travelType = settings.getString("TransportPreference",
+				"driving");
+		updateRequest = RouteInformation.getTravelTimeAsync(currentLocation,
+				location, travelType, handler,
+				new RoutingExecutor.Callback<TravelTime>()
+				{
+					@Override
+					public void onResult(final TravelTime travelTime)
+					{
+						updateRequest = null;
+						// Fall back to no travel time if it could be neither
+						// retrieved nor estimated
+						update(views, title, location, startTime,
+								travelTime == null ? new TravelTime(0, false)
+										: travelTime);
+					}
+				});
+	}
+
+	/**
+	 * Fills in the RemoteViews with the given event's information and updates
+	 * all widgets
+	 * 
+	 * @param views
+	 *            base RemoteViews to fill in
+	 * @param title
+	 *            title of the next event
+	 * @param location
+	 *            location of the next event
+	 * @param startTime
+	 *            start time of the next event
+	 * @param travelTime
+	 *            travel time to the next event, or null if the current
+	 *            location is not known
+	 */
+	private void update(final RemoteViews views, final String title,
+			final String location, final long startTime,
+			final TravelTime travelTime)
+	{
+		final CharSequence leaveIn;
+		if (travelTime == null)
 			leaveIn = "Needs GPS";
 		else
 		{
 			final SharedPreferences settings = getSharedPreferences(
 					WidgetUpdateService.PREF, 0);
-			final String travelType = settings.getString("TransportPreference",
-					"driving");
-			final int locationColumnIndex = data
-					.getColumnIndex(CalendarContract.Events.EVENT_LOCATION);
-			final String location = data.getString(locationColumnIndex);
-			final int startTimeColumnIndex = data
-					.getColumnIndex(CalendarContract.Events.DTSTART);
-			final long startTime = data.getLong(startTimeColumnIndex);
-			final int travelTime = RouteInformation.getDuration(
-					currentLocation, location, travelType);
 			final long minutesUntilEvent = (startTime - new Date().getTime()) / 60000;
-			final long leaveInMinutes = minutesUntilEvent - travelTime;
+			final long leaveInMinutes = minutesUntilEvent
+					- travelTime.getMinutes();
 			final int notifyTimeInMin = settings.getInt("NotifyTime", 3600) / 60;
 			if (leaveInMinutes < notifyTimeInMin * .33333)
 				views.setInt(R.id.widgetBackgroudLayout,
@@ -253,20 +318,11 @@ public class WidgetUpdateService extends Service implements
 			if (leaveInMinutes < 0)
 				leaveIn = "Leave now!";
 			else
-				leaveIn = "Leave in "
+				leaveIn = "Leave in " + (travelTime.isEstimated() ? "~" : "")
 						+ WidgetUpdateService.formatWhenToLeave(leaveInMinutes);
 		}
-		final int titleColumnIndex = data
-				.getColumnIndex(CalendarContract.Events.TITLE);
-		final String title = data.getString(titleColumnIndex);
-		final int locationColumnIndex = data
-				.getColumnIndex(CalendarContract.Events.EVENT_LOCATION);
-		final String location = data.getString(locationColumnIndex);
 		final String truncatedWhere = location.length() > 13 ? location
 				.substring(0, 10) + "..." : location;
-		final int startTimeColumnIndex = data
-				.getColumnIndex(CalendarContract.Events.DTSTART);
-		final long startTime = data.getLong(startTimeColumnIndex);
 		final CharSequence eventTime = DateFormat.format("hh:mma", startTime)
 				+ " @ " + truncatedWhere;
 		views.setTextViewText(R.id.widgetLeaveInText, leaveIn);
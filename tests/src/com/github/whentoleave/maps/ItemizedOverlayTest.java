@@ -0,0 +1,129 @@
+package com.github.whentoleave.maps;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+import android.graphics.drawable.ShapeDrawable;
+
+import com.google.android.maps.GeoPoint;
+import com.google.android.maps.OverlayItem;
+
+/**
+ * Tests hit-testing taps on the markers of an {@link ItemizedOverlay}
+ */
+public class ItemizedOverlayTest extends TestCase
+{
+	/**
+	 * Latitude of the first item in microdegrees
+	 */
+	private static final int LAT_E6 = 10000;
+	/**
+	 * Longitude of the first item in microdegrees
+	 */
+	private static final int LON_E6 = 10000;
+	/**
+	 * Microdegrees per screen pixel near the equator at {@link #ZOOM_LEVEL}
+	 */
+	private static final double MICRODEGREES_PER_PIXEL = 360E6 / (1 << 8 + 17);
+	/**
+	 * Zoom level of the taps
+	 */
+	private static final int ZOOM_LEVEL = 17;
+
+	/**
+	 * Gets the location a number of screen pixels away from the first item
+	 * 
+	 * @param dx
+	 *            screen pixels east of the first item
+	 * @param dy
+	 *            screen pixels south of the first item
+	 * @return location of the tap
+	 */
+	private static GeoPoint offset(final int dx, final int dy)
+	{
+		return new GeoPoint(ItemizedOverlayTest.LAT_E6
+				- (int) Math.round(dy
+						* ItemizedOverlayTest.MICRODEGREES_PER_PIXEL),
+				ItemizedOverlayTest.LON_E6
+						+ (int) Math.round(dx
+								* ItemizedOverlayTest.MICRODEGREES_PER_PIXEL));
+	}
+
+	/**
+	 * Overlay under test, with markers 20 pixels wide and 40 pixels tall
+	 * standing on their items' points
+	 */
+	private ItemizedOverlay mOverlay;
+
+	/**
+	 * Checks which item a tap hits
+	 * 
+	 * @param expected
+	 *            index of the item expected to be hit, or -1 for none
+	 * @param dx
+	 *            screen pixels east of the first item
+	 * @param dy
+	 *            screen pixels south of the first item
+	 */
+	private void assertTapped(final int expected, final int dx, final int dy)
+	{
+		assertEquals(expected, mOverlay.findTapped(
+				ItemizedOverlayTest.offset(dx, dy),
+				ItemizedOverlayTest.ZOOM_LEVEL));
+	}
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		final ShapeDrawable marker = new ShapeDrawable();
+		marker.setIntrinsicWidth(20);
+		marker.setIntrinsicHeight(40);
+		mOverlay = new ItemizedOverlay(marker, null);
+		// The second item stands 8 pixels east of the first, overlapping its
+		// marker, with more items far enough away to never be tapped
+		final ArrayList<OverlayItem> items = new ArrayList<OverlayItem>();
+		items.add(new OverlayItem(ItemizedOverlayTest.offset(0, 0), "First",
+				null));
+		items.add(new OverlayItem(ItemizedOverlayTest.offset(8, 0),
+				"Second", null));
+		for (int h = 0; h < 20; h++)
+			items.add(new OverlayItem(ItemizedOverlayTest.offset(
+					100 + 30 * (h % 5), 100 + 50 * (h / 5)), "Other", null));
+		final long[] eventIds = new long[items.size()];
+		for (int h = 0; h < eventIds.length; h++)
+			eventIds[h] = h;
+		mOverlay.setItems(items, eventIds);
+	}
+
+	/**
+	 * Taps beside or below a marker miss it
+	 */
+	public void testTapOutsideMarkerMisses()
+	{
+		assertTapped(-1, 0, 10);
+		assertTapped(-1, 0, -45);
+		assertTapped(-1, 20, -5);
+		assertTapped(-1, -15, -5);
+	}
+
+	/**
+	 * Taps on a marker, which stands above its point, hit its item
+	 */
+	public void testTapOnMarkerHits()
+	{
+		assertTapped(0, -5, -5);
+		assertTapped(0, -8, -35);
+		assertTapped(1, 15, -20);
+		assertTapped(2, 100, 90);
+	}
+
+	/**
+	 * Taps on overlapping markers hit the item whose point is nearest
+	 */
+	public void testTapOnOverlappingMarkersHitsNearest()
+	{
+		assertTapped(0, 2, -10);
+		assertTapped(1, 6, -10);
+	}
+}
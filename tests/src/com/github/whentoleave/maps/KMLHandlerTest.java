@@ -0,0 +1,93 @@
+package com.github.whentoleave.maps;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Tests the route coordinates parsing of {@link KMLHandler}, which must give
+ * the same route however the parser splits the coordinates into characters
+ * calls
+ */
+public class KMLHandlerTest extends TestCase
+{
+	/**
+	 * Route coordinates, with altitude components, numbers beyond microdegree
+	 * precision and mixed whitespace between tuples
+	 */
+	private static final String COORDINATES = "\n\t-84.388100,33.748900,"
+			+ "0.000000 -84.3875,33.7494,312\n-1.1234567891,2.5\t\t"
+			+ "0.000001,-0.9999999,12.5\n";
+
+	/**
+	 * Parses a route's coordinates, passing them to the handler a few
+	 * characters at a time
+	 * 
+	 * @param coordinates
+	 *            content of the route's coordinates element
+	 * @param chunkSize
+	 *            number of characters passed to each characters call
+	 * @return the parsed route
+	 * @throws SAXException
+	 *             if the handler fails
+	 */
+	private static Route parse(final String coordinates, final int chunkSize)
+			throws SAXException
+	{
+		final KMLHandler handler = new KMLHandler();
+		handler.startElement("", "Placemark", "Placemark", null);
+		handler.startElement("", "name", "name", null);
+		final char[] name = "Route".toCharArray();
+		handler.characters(name, 0, name.length);
+		handler.endElement("", "name", "name");
+		handler.startElement("", "coordinates", "coordinates", null);
+		// Start past a prefix to make sure the start offset is honored
+		final char[] ch = ("prefix" + coordinates).toCharArray();
+		for (int h = "prefix".length(); h < ch.length; h += chunkSize)
+			handler.characters(ch, h, Math.min(chunkSize, ch.length - h));
+		handler.endElement("", "coordinates", "coordinates");
+		handler.endElement("", "Placemark", "Placemark");
+		return handler.mRoute;
+	}
+
+	/**
+	 * Coordinates split into single characters, splitting every number and
+	 * tuple across calls, give the same route as in a single call
+	 */
+	public void testChunkedCoordinatesMatchWhole() throws SAXException
+	{
+		final Route whole = KMLHandlerTest.parse(KMLHandlerTest.COORDINATES,
+				KMLHandlerTest.COORDINATES.length());
+		for (int chunkSize = 1; chunkSize < 8; chunkSize++)
+		{
+			final Route chunked = KMLHandlerTest.parse(
+					KMLHandlerTest.COORDINATES, chunkSize);
+			assertEquals(whole.getPointCount(), chunked.getPointCount());
+			for (int h = 0; h < whole.getPointCount(); h++)
+			{
+				assertEquals(whole.getLatitudeE6(h), chunked.getLatitudeE6(h));
+				assertEquals(whole.getLongitudeE6(h),
+						chunked.getLongitudeE6(h));
+			}
+		}
+	}
+
+	/**
+	 * Coordinates are read as longitude, latitude pairs in microdegrees,
+	 * ignoring altitudes and truncating digits beyond microdegree precision
+	 */
+	public void testCoordinates() throws SAXException
+	{
+		final Route route = KMLHandlerTest.parse(KMLHandlerTest.COORDINATES,
+				KMLHandlerTest.COORDINATES.length());
+		assertEquals(4, route.getPointCount());
+		assertEquals(33748900, route.getLatitudeE6(0));
+		assertEquals(-84388100, route.getLongitudeE6(0));
+		assertEquals(33749400, route.getLatitudeE6(1));
+		assertEquals(-84387500, route.getLongitudeE6(1));
+		assertEquals(2500000, route.getLatitudeE6(2));
+		assertEquals(-1123456, route.getLongitudeE6(2));
+		assertEquals(-999999, route.getLatitudeE6(3));
+		assertEquals(1, route.getLongitudeE6(3));
+	}
+}
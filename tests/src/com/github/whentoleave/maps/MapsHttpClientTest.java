@@ -0,0 +1,194 @@
+package com.github.whentoleave.maps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link MapsHttpClient} against a local {@link StubRouteServer}
+ */
+public class MapsHttpClientTest extends TestCase
+{
+	/**
+	 * Body of the recorded response
+	 */
+	private static final String BODY = "{\"status\":\"OK\",\"routes\":[]}";
+
+	/**
+	 * Reads a whole response, closing it afterwards
+	 * 
+	 * @param is
+	 *            response to read
+	 * @return the response's body
+	 * @throws IOException
+	 *             if the response could not be read
+	 */
+	private static String readAll(final InputStream is) throws IOException
+	{
+		try
+		{
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[256];
+			int read;
+			while ((read = is.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+			return out.toString("UTF-8");
+		} finally
+		{
+			is.close();
+		}
+	}
+
+	/**
+	 * Server replaying the recorded response
+	 */
+	private StubRouteServer mServer;
+	/**
+	 * URL of the recorded response
+	 */
+	private String mUrl;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		mServer = new StubRouteServer();
+		mServer.addRecording(StubRouteServer.PATH_DIRECTIONS,
+				"application/json", MapsHttpClientTest.BODY.getBytes("UTF-8"));
+		mServer.start(0, true);
+		mUrl = mServer.getBaseUrl() + StubRouteServer.PATH_DIRECTIONS;
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		mServer.stop();
+		super.tearDown();
+	}
+
+	/**
+	 * A body which keeps arriving past the deadline fails the read, even
+	 * though each single read is well within the read timeout
+	 */
+	public void testDeadlineExpiresWhileReadingBody() throws IOException
+	{
+		mServer.setTrickleDelay(50);
+		final InputStream is = MapsHttpClient.open(mUrl, 500);
+		try
+		{
+			MapsHttpClientTest.readAll(is);
+			fail("Read past the deadline");
+		} catch (final SocketTimeoutException e)
+		{
+			// Expected
+		}
+	}
+
+	/**
+	 * A response slower than the deadline fails the request
+	 */
+	public void testDeadlineExpiresWaitingForResponse()
+	{
+		mServer.setLatency(2000, 2000);
+		final long start = System.currentTimeMillis();
+		try
+		{
+			MapsHttpClientTest.readAll(MapsHttpClient.open(mUrl, 300));
+			fail("Request outlived its deadline");
+		} catch (final IOException e)
+		{
+			assertTrue(System.currentTimeMillis() - start < 2000);
+		}
+	}
+
+	/**
+	 * A read started just before the deadline fails at the deadline, rather
+	 * than once the read timeout set when connecting expires. The body is
+	 * large enough that disconnecting cannot hand it off to be drained.
+	 */
+	public void testDeadlineInterruptsBlockedRead() throws IOException
+	{
+		mServer.addRecording(StubRouteServer.PATH_DIRECTIONS,
+				"application/json", new byte[4096]);
+		mServer.setTrickleDelay(500);
+		final long start = System.currentTimeMillis();
+		final InputStream is = MapsHttpClient.open(mUrl, 600);
+		try
+		{
+			MapsHttpClientTest.readAll(is);
+			fail("Read past the deadline");
+		} catch (final SocketTimeoutException e)
+		{
+			assertTrue(System.currentTimeMillis() - start < 900);
+		}
+	}
+
+	/**
+	 * Closing a response before reading all of it still lets the connection
+	 * be reused
+	 */
+	public void testEarlyCloseKeepsConnectionAlive() throws IOException
+	{
+		final InputStream is = MapsHttpClient.open(mUrl);
+		assertEquals('{', is.read());
+		is.close();
+		assertEquals(MapsHttpClientTest.BODY,
+				MapsHttpClientTest.readAll(MapsHttpClient.open(mUrl)));
+		assertEquals(2, mServer.getRequestCount());
+		assertEquals(1, mServer.getConnectionCount());
+	}
+
+	/**
+	 * An error status fails the request with its status, without breaking
+	 * later requests
+	 */
+	public void testErrorStatusThrows() throws IOException
+	{
+		mServer.setErrorRate(1);
+		try
+		{
+			MapsHttpClientTest.readAll(MapsHttpClient.open(mUrl));
+			fail("Error body returned as a response");
+		} catch (final IOException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains("HTTP 503"));
+		}
+		mServer.setErrorRate(0);
+		assertEquals(MapsHttpClientTest.BODY,
+				MapsHttpClientTest.readAll(MapsHttpClient.open(mUrl)));
+	}
+
+	/**
+	 * Gzip compressed responses are decompressed
+	 */
+	public void testGzipResponseIsDecoded() throws IOException
+	{
+		mServer.setGzip(true);
+		assertEquals(MapsHttpClientTest.BODY,
+				MapsHttpClientTest.readAll(MapsHttpClient.open(mUrl)));
+	}
+
+	/**
+	 * Consecutive requests reuse the same connection
+	 */
+	public void testKeepAliveReusesConnection() throws IOException
+	{
+		for (int h = 0; h < 3; h++)
+			assertEquals(MapsHttpClientTest.BODY,
+					MapsHttpClientTest.readAll(MapsHttpClient.open(mUrl)));
+		assertEquals(3, mServer.getRequestCount());
+		assertEquals(1, mServer.getConnectionCount());
+	}
+
+	/**
+	 * Uncompressed responses are returned as is
+	 */
+	public void testPlainResponse() throws IOException
+	{
+		assertEquals(MapsHttpClientTest.BODY,
+				MapsHttpClientTest.readAll(MapsHttpClient.open(mUrl)));
+	}
+}
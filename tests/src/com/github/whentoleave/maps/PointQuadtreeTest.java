@@ -0,0 +1,215 @@
+package com.github.whentoleave.maps;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link PointQuadtree} against brute force grouping and searching of
+ * the same points
+ */
+public class PointQuadtreeTest extends TestCase
+{
+	/**
+	 * Number of points in each test quadtree
+	 */
+	private static final int POINT_COUNT = 500;
+
+	/**
+	 * Latitudes of the points in microdegrees
+	 */
+	private int[] mLatE6;
+	/**
+	 * Longitudes of the points in microdegrees
+	 */
+	private int[] mLonE6;
+
+	/**
+	 * Checks the cells of a level against the pixel coordinates of their
+	 * points: every point of a cell lies in the same cell of the level, and
+	 * consecutive cells are different cells of the level
+	 * 
+	 * @param quadtree
+	 *            quadtree the cells belong to
+	 * @param level
+	 *            quadtree level of the cells
+	 * @param cells
+	 *            cells returned by {@link PointQuadtree#getCells(int)}
+	 */
+	private void assertCells(final PointQuadtree quadtree, final int level,
+			final int[] cells)
+	{
+		final int shift = PointQuadtree.COORDINATE_BITS - level;
+		assertEquals(0, cells[0]);
+		assertEquals(quadtree.size(), cells[cells.length - 1]);
+		for (int cell = 0; cell < cells.length - 1; cell++)
+		{
+			final int start = cells[cell];
+			final int end = cells[cell + 1];
+			assertTrue(start < end);
+			for (int position = start + 1; position < end; position++)
+			{
+				assertEquals(quadtree.getX(start) >> shift,
+						quadtree.getX(position) >> shift);
+				assertEquals(quadtree.getY(start) >> shift,
+						quadtree.getY(position) >> shift);
+			}
+			if (cell > 0)
+			{
+				final int previous = cells[cell - 1];
+				assertFalse(quadtree.getX(start) >> shift == quadtree
+						.getX(previous) >> shift
+						&& quadtree.getY(start) >> shift == quadtree
+								.getY(previous) >> shift);
+			}
+		}
+	}
+
+	/**
+	 * Checks a query against testing every point of the quadtree
+	 * 
+	 * @param quadtree
+	 *            quadtree to query
+	 * @param left
+	 *            smallest x pixel coordinate
+	 * @param top
+	 *            smallest y pixel coordinate
+	 * @param right
+	 *            largest x pixel coordinate
+	 * @param bottom
+	 *            largest y pixel coordinate
+	 */
+	private void assertQuery(final PointQuadtree quadtree, final int left,
+			final int top, final int right, final int bottom)
+	{
+		final int[] expected = new int[quadtree.size()];
+		int expectedCount = 0;
+		for (int position = 0; position < quadtree.size(); position++)
+		{
+			final int x = quadtree.getX(position);
+			final int y = quadtree.getY(position);
+			if (x >= left && x <= right && y >= top && y <= bottom)
+				expected[expectedCount++] = position;
+		}
+		final int[] positions = new int[quadtree.size()];
+		final int found = quadtree.query(left, top, right, bottom, positions);
+		Arrays.sort(positions, 0, found);
+		assertTrue(Arrays.equals(Arrays.copyOf(expected, expectedCount),
+				Arrays.copyOf(positions, found)));
+	}
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		// Points clustered around a few centers, so that cells at every level
+		// hold several points
+		final Random random = new Random(42);
+		mLatE6 = new int[PointQuadtreeTest.POINT_COUNT];
+		mLonE6 = new int[PointQuadtreeTest.POINT_COUNT];
+		for (int h = 0; h < PointQuadtreeTest.POINT_COUNT; h++)
+		{
+			final int center = random.nextInt(5);
+			final int spread = 1 << 4 * (1 + random.nextInt(5));
+			mLatE6[h] = 33000000 + center * 1000000 + random.nextInt(spread);
+			mLonE6[h] = -84000000 + center * 1500000 + random.nextInt(spread);
+		}
+		// Duplicate points share every cell
+		mLatE6[1] = mLatE6[0];
+		mLonE6[1] = mLonE6[0];
+	}
+
+	/**
+	 * Cells are the same whichever order the levels are built in, with each
+	 * cell of a level made of whole cells of the level below it
+	 */
+	public void testCellsNestAcrossLevels()
+	{
+		final PointQuadtree finestFirst = new PointQuadtree(mLatE6, mLonE6,
+				PointQuadtreeTest.POINT_COUNT);
+		final PointQuadtree coarsestFirst = new PointQuadtree(mLatE6, mLonE6,
+				PointQuadtreeTest.POINT_COUNT);
+		for (int level = 0; level <= PointQuadtree.COORDINATE_BITS; level++)
+			coarsestFirst.getCells(level);
+		int[] finerCells = null;
+		for (int level = PointQuadtree.COORDINATE_BITS; level >= 0; level--)
+		{
+			final int[] cells = finestFirst.getCells(level);
+			assertCells(finestFirst, level, cells);
+			assertTrue(Arrays.equals(coarsestFirst.getCells(level), cells));
+			if (finerCells != null)
+				for (final int start : cells)
+					assertTrue(Arrays.binarySearch(finerCells, start) >= 0);
+			finerCells = cells;
+		}
+		assertEquals(2, finestFirst.getCells(0).length);
+	}
+
+	/**
+	 * Levels outside the quadtree are clamped to its coarsest and finest
+	 * levels
+	 */
+	public void testCellsOfOutOfRangeLevels()
+	{
+		final PointQuadtree quadtree = new PointQuadtree(mLatE6, mLonE6,
+				PointQuadtreeTest.POINT_COUNT);
+		assertSame(quadtree.getCells(0), quadtree.getCells(-1));
+		assertSame(quadtree.getCells(PointQuadtree.COORDINATE_BITS),
+				quadtree.getCells(PointQuadtree.COORDINATE_BITS + 1));
+	}
+
+	/**
+	 * Queries find exactly the points within their bounds, including points
+	 * on the bounds and in cells only partly within them
+	 */
+	public void testQueryMatchesBruteForce()
+	{
+		final PointQuadtree quadtree = new PointQuadtree(mLatE6, mLonE6,
+				PointQuadtreeTest.POINT_COUNT);
+		final Random random = new Random(7);
+		for (int h = 0; h < 200; h++)
+		{
+			final int first = random.nextInt(PointQuadtreeTest.POINT_COUNT);
+			final int second = random.nextInt(PointQuadtreeTest.POINT_COUNT);
+			// Bounds through points, so some points lie on the bounds
+			assertQuery(quadtree,
+					Math.min(quadtree.getX(first), quadtree.getX(second)),
+					Math.min(quadtree.getY(first), quadtree.getY(second)),
+					Math.max(quadtree.getX(first), quadtree.getX(second)),
+					Math.max(quadtree.getY(first), quadtree.getY(second)));
+			// Bounds one pixel either side of a cell's edges
+			final int level = random.nextInt(PointQuadtree.COORDINATE_BITS);
+			final int cellSize = 1 << PointQuadtree.COORDINATE_BITS - level;
+			final int cellLeft = quadtree.getX(first) & -cellSize;
+			final int cellTop = quadtree.getY(first) & -cellSize;
+			final int margin = random.nextInt(3) - 1;
+			assertQuery(quadtree, cellLeft - margin, cellTop - margin,
+					cellLeft + cellSize - 1 + margin, cellTop + cellSize - 1
+							+ margin);
+		}
+	}
+
+	/**
+	 * A query of a single pixel finds the points at it, down to the finest
+	 * cells
+	 */
+	public void testQuerySinglePixel()
+	{
+		final PointQuadtree quadtree = new PointQuadtree(mLatE6, mLonE6,
+				PointQuadtreeTest.POINT_COUNT);
+		final int[] positions = new int[quadtree.size()];
+		final int x = PointQuadtree.toPixelX(mLonE6[0]);
+		final int y = PointQuadtree.toPixelY(mLatE6[0]);
+		final int found = quadtree.query(x, y, x, y, positions);
+		assertTrue(found >= 2);
+		boolean foundFirst = false;
+		boolean foundSecond = false;
+		for (int h = 0; h < found; h++)
+		{
+			foundFirst |= quadtree.getPoint(positions[h]) == 0;
+			foundSecond |= quadtree.getPoint(positions[h]) == 1;
+		}
+		assertTrue(foundFirst && foundSecond);
+	}
+}
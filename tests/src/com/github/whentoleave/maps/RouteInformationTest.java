@@ -0,0 +1,243 @@
+package com.github.whentoleave.maps;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import android.location.Location;
+
+import com.google.android.maps.GeoPoint;
+
+/**
+ * Tests {@link RouteInformation} against a local {@link StubRouteServer}, with
+ * the persistent stores bypassed so that results only depend on the
+ * recordings
+ */
+public class RouteInformationTest extends TestCase
+{
+	/**
+	 * Destination of every trip
+	 */
+	private static final String DESTINATION = "1 Main St";
+	/**
+	 * Directions response with a 15 minute route
+	 */
+	private static final String DIRECTIONS = "{\"routes\":[{\"legs\":["
+			+ "{\"duration\":{\"text\":\"10 mins\",\"value\":600}},"
+			+ "{\"duration\":{\"text\":\"5 mins\",\"value\":300}}]}],"
+			+ "\"status\":\"OK\"}";
+	/**
+	 * Number of consecutive failures opening the circuit breaker
+	 */
+	private static final int FAILURE_THRESHOLD = 3;
+	/**
+	 * Geocoding response placing the destination in Atlanta
+	 */
+	private static final String GEOCODE = "{\"results\":[{\"geometry\":"
+			+ "{\"location\":{\"lat\":33.7489,\"lng\":-84.3881}}}],"
+			+ "\"status\":\"OK\"}";
+	/**
+	 * Distance Matrix response with a 10 minute trip to the first destination
+	 * and no route to the second
+	 */
+	private static final String MATRIX = "{\"rows\":[{\"elements\":["
+			+ "{\"duration\":{\"text\":\"10 mins\",\"value\":600},"
+			+ "\"status\":\"OK\"},{\"status\":\"NOT_FOUND\"}]}],"
+			+ "\"status\":\"OK\"}";
+	/**
+	 * Response of a service refusing requests over the quota
+	 */
+	private static final String OVER_QUERY_LIMIT = "{\"results\":[],"
+			+ "\"routes\":[],\"rows\":[],\"status\":\"OVER_QUERY_LIMIT\"}";
+	/**
+	 * Response of a service finding no result for a valid request
+	 */
+	private static final String ZERO_RESULTS = "{\"results\":[],"
+			+ "\"routes\":[],\"rows\":[],\"status\":\"ZERO_RESULTS\"}";
+
+	/**
+	 * Starting location of every trip
+	 */
+	private Location mOrigin;
+	/**
+	 * Server replaying the recorded responses
+	 */
+	private StubRouteServer mServer;
+
+	/**
+	 * Replaces the recorded response of a service
+	 * 
+	 * @param path
+	 *            path of the service, such as
+	 *            {@link StubRouteServer#PATH_DIRECTIONS}
+	 * @param json
+	 *            JSON response
+	 * @throws Exception
+	 *             if the response could not be encoded
+	 */
+	private void record(final String path, final String json)
+			throws Exception
+	{
+		mServer.addRecording(path, "application/json", json.getBytes("UTF-8"));
+	}
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		mServer = new StubRouteServer();
+		mServer.start(0, true);
+		RouteInformation.setBackend(
+				new HttpRouteBackend(mServer.getBaseUrl()), false);
+		mOrigin = new Location("test");
+		mOrigin.setLatitude(33.7756);
+		mOrigin.setLongitude(-84.3963);
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		RouteInformation.setBackend(new HttpRouteBackend());
+		mServer.stop();
+		super.tearDown();
+	}
+
+	/**
+	 * Geocoding failures reported in the response's status open the circuit
+	 * breaker
+	 */
+	public void testGeocodeFailureStatusOpensBreaker() throws Exception
+	{
+		record(StubRouteServer.PATH_GEOCODE,
+				RouteInformationTest.OVER_QUERY_LIMIT);
+		for (int h = 0; h <= RouteInformationTest.FAILURE_THRESHOLD; h++)
+			assertNull(RouteInformation
+					.getLocation(RouteInformationTest.DESTINATION));
+		assertEquals(RouteInformationTest.FAILURE_THRESHOLD,
+				mServer.getRequestCount());
+	}
+
+	/**
+	 * Locations are read from the first Geocoding result
+	 */
+	public void testLocationFromBackend() throws Exception
+	{
+		record(StubRouteServer.PATH_GEOCODE, RouteInformationTest.GEOCODE);
+		final GeoPoint point = RouteInformation
+				.getLocation(RouteInformationTest.DESTINATION);
+		assertEquals(33748900, point.getLatitudeE6());
+		assertEquals(-84388100, point.getLongitudeE6());
+	}
+
+	/**
+	 * Distance Matrix failures reported in the response's status open the
+	 * circuit breaker
+	 */
+	public void testMatrixFailureStatusOpensBreaker() throws Exception
+	{
+		record(StubRouteServer.PATH_DISTANCE_MATRIX,
+				RouteInformationTest.OVER_QUERY_LIMIT);
+		for (int h = 0; h <= RouteInformationTest.FAILURE_THRESHOLD; h++)
+		{
+			final int[] durations = RouteInformation.getDurations(mOrigin,
+					Arrays.asList(RouteInformationTest.DESTINATION), "driving");
+			assertEquals(-1, durations[0]);
+		}
+		assertEquals(RouteInformationTest.FAILURE_THRESHOLD,
+				mServer.getRequestCount());
+	}
+
+	/**
+	 * Prefetching reports which destinations' travel times were retrieved, and
+	 * caches only those
+	 */
+	public void testPrefetchReportsEachDestination() throws Exception
+	{
+		record(StubRouteServer.PATH_DISTANCE_MATRIX,
+				RouteInformationTest.MATRIX);
+		final List<String> destinations = Arrays.asList(
+				RouteInformationTest.DESTINATION, "2 Main St");
+		final boolean[] fetched = RouteInformation.prefetchDurations(mOrigin,
+				destinations, new long[] { 60000, 60000 }, "driving");
+		assertTrue(fetched[0]);
+		assertFalse(fetched[1]);
+		assertEquals(10, RouteInformation.getDurations(mOrigin, destinations,
+				"driving")[0]);
+		// Only the destination without a travel time is requested again
+		assertEquals(2, mServer.getRequestCount());
+	}
+
+	/**
+	 * Replacing the backend drops travel times cached from the previous one
+	 */
+	public void testSetBackendClearsCache() throws Exception
+	{
+		record(StubRouteServer.PATH_DIRECTIONS,
+				RouteInformationTest.DIRECTIONS);
+		RouteInformation.getTravelTime(mOrigin,
+				RouteInformationTest.DESTINATION, "driving");
+		RouteInformation.setBackend(
+				new HttpRouteBackend(mServer.getBaseUrl()), false);
+		RouteInformation.getTravelTime(mOrigin,
+				RouteInformationTest.DESTINATION, "driving");
+		assertEquals(2, mServer.getRequestCount());
+	}
+
+	/**
+	 * Directions failures reported in the response's status open the circuit
+	 * breaker, even though the HTTP request itself succeeded
+	 */
+	public void testTravelTimeFailureStatusOpensBreaker() throws Exception
+	{
+		record(StubRouteServer.PATH_DIRECTIONS,
+				RouteInformationTest.OVER_QUERY_LIMIT);
+		for (int h = 0; h <= RouteInformationTest.FAILURE_THRESHOLD; h++)
+			assertNull(RouteInformation.getTravelTime(mOrigin,
+					RouteInformationTest.DESTINATION, "driving"));
+		assertEquals(RouteInformationTest.FAILURE_THRESHOLD,
+				mServer.getRequestCount());
+	}
+
+	/**
+	 * Travel times are retrieved from the backend once, then served from the
+	 * cache
+	 */
+	public void testTravelTimeFromBackend() throws Exception
+	{
+		record(StubRouteServer.PATH_DIRECTIONS,
+				RouteInformationTest.DIRECTIONS);
+		for (int h = 0; h < 2; h++)
+		{
+			final TravelTime travelTime = RouteInformation.getTravelTime(
+					mOrigin, RouteInformationTest.DESTINATION, "driving");
+			assertEquals(15, travelTime.getMinutes());
+			assertFalse(travelTime.isEstimated());
+		}
+		assertEquals(1, mServer.getRequestCount());
+	}
+
+	/**
+	 * Without a recording the travel time can be neither retrieved nor, with
+	 * the persistent stores bypassed, estimated
+	 */
+	public void testUnavailableTravelTimeIsNotEstimated()
+	{
+		assertNull(RouteInformation.getTravelTime(mOrigin,
+				RouteInformationTest.DESTINATION, "driving"));
+	}
+
+	/**
+	 * Finding no route is a valid answer, which leaves the circuit breaker
+	 * closed
+	 */
+	public void testZeroResultsKeepsBreakerClosed() throws Exception
+	{
+		record(StubRouteServer.PATH_DIRECTIONS,
+				RouteInformationTest.ZERO_RESULTS);
+		for (int h = 0; h <= RouteInformationTest.FAILURE_THRESHOLD; h++)
+			assertNull(RouteInformation.getTravelTime(mOrigin,
+					RouteInformationTest.DESTINATION, "driving"));
+		assertEquals(RouteInformationTest.FAILURE_THRESHOLD + 1,
+				mServer.getRequestCount());
+	}
+}
@@ -0,0 +1,99 @@
+package com.github.whentoleave.maps;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the points {@link RouteLevels} keeps at each zoom level
+ */
+public class RouteLevelsTest extends TestCase
+{
+	/**
+	 * Highest map zoom level
+	 */
+	private static final int MAX_ZOOM = 22;
+	/**
+	 * Number of points in the winding test route
+	 */
+	private static final int POINT_COUNT = 2000;
+
+	/**
+	 * Creates a winding route: a random walk of steps of up to about a
+	 * hundred meters, so that points matter at many different zoom levels
+	 * 
+	 * @return the route
+	 */
+	private static Route createWindingRoute()
+	{
+		final Random random = new Random(42);
+		final Route route = new Route();
+		int latE6 = 33748900;
+		int lonE6 = -84388100;
+		for (int h = 0; h < RouteLevelsTest.POINT_COUNT; h++)
+		{
+			route.addPoint(latE6, lonE6);
+			latE6 += random.nextInt(2001) - 1000;
+			lonE6 += random.nextInt(2001) - 1000;
+		}
+		return route;
+	}
+
+	/**
+	 * The points kept at a zoom level always include every point kept at a
+	 * less detailed zoom level
+	 */
+	public void testCoarserLevelsAreSubsets()
+	{
+		final RouteLevels levels = new RouteLevels(
+				RouteLevelsTest.createWindingRoute());
+		for (int zoom = 1; zoom <= RouteLevelsTest.MAX_ZOOM; zoom++)
+		{
+			final int[] coarser = levels.getIndexes(zoom - 1);
+			final int[] finer = levels.getIndexes(zoom);
+			assertTrue(coarser.length <= finer.length);
+			for (final int index : coarser)
+				assertTrue("Point " + index + " dropped at zoom " + zoom,
+						Arrays.binarySearch(finer, index) >= 0);
+		}
+		// The most detailed levels must actually add points
+		assertTrue(levels.getIndexes(0).length < levels
+				.getIndexes(RouteLevelsTest.MAX_ZOOM).length);
+	}
+
+	/**
+	 * Every level is sorted and keeps the first and last points, so that the
+	 * drawn line always starts and ends where the route does
+	 */
+	public void testEndpointsKeptAndIndexesSorted()
+	{
+		final RouteLevels levels = new RouteLevels(
+				RouteLevelsTest.createWindingRoute());
+		for (int zoom = 0; zoom <= RouteLevelsTest.MAX_ZOOM; zoom++)
+		{
+			final int[] indexes = levels.getIndexes(zoom);
+			assertTrue(indexes.length >= 2);
+			assertEquals(0, indexes[0]);
+			assertEquals(RouteLevelsTest.POINT_COUNT - 1,
+					indexes[indexes.length - 1]);
+			for (int h = 1; h < indexes.length; h++)
+				assertTrue(indexes[h - 1] < indexes[h]);
+		}
+	}
+
+	/**
+	 * Points along a straight line add nothing to the drawn line, so only its
+	 * endpoints are kept, even at the most detailed zoom level
+	 */
+	public void testStraightLineKeepsOnlyEndpoints()
+	{
+		final Route route = new Route();
+		for (int h = 0; h < 100; h++)
+			route.addPoint(33000000 + h * 1000, -84000000 + h * 2000);
+		final RouteLevels levels = new RouteLevels(route);
+		for (int zoom = 0; zoom <= RouteLevelsTest.MAX_ZOOM; zoom++)
+			assertTrue(Arrays.equals(new int[] { 0, 99 },
+					levels.getIndexes(zoom)));
+	}
+}
@@ -0,0 +1,117 @@
+package com.github.whentoleave.maps;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the serialized form of {@link Route}
+ */
+public class RouteTest extends TestCase
+{
+	/**
+	 * Reads a route from its serialized form
+	 * 
+	 * @param bytes
+	 *            serialized route
+	 * @return the route
+	 * @throws IOException
+	 *             if the route could not be read
+	 */
+	private static Route read(final byte[] bytes) throws IOException
+	{
+		return Route.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+	}
+
+	/**
+	 * Serializes a route
+	 * 
+	 * @param route
+	 *            route to serialize
+	 * @return the serialized route
+	 * @throws IOException
+	 *             if the route could not be written
+	 */
+	private static byte[] write(final Route route) throws IOException
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		route.write(new DataOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * A negative point count, as from corrupt input, fails the read
+	 */
+	public void testNegativePointCountIsRejected()
+	{
+		// Version 1, no name or description, point count -1
+		final byte[] bytes = { 1, 0, 0, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+				(byte) 0xff, 0x0f };
+		try
+		{
+			RouteTest.read(bytes);
+			fail("Read a route with a negative point count");
+		} catch (final IOException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains("point count"));
+		}
+	}
+
+	/**
+	 * A point count beyond any real route fails the read rather than
+	 * allocating arrays for it
+	 */
+	public void testOversizedPointCountIsRejected()
+	{
+		// Version 1, no name or description, point count 1 << 21
+		final byte[] bytes = { 1, 0, 0, (byte) 0x80, (byte) 0x80, (byte) 0x80,
+				0x01 };
+		try
+		{
+			RouteTest.read(bytes);
+			fail("Read a route with an oversized point count");
+		} catch (final IOException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains("point count"));
+		}
+	}
+
+	/**
+	 * Points survive a write and read unchanged, including negative deltas
+	 * and jumps across the whole range of coordinates
+	 */
+	public void testRoundTrip() throws IOException
+	{
+		final int[][] points = { { 33748900, -84388100 },
+				{ 33748895, -84388120 }, { 33749400, -84387500 },
+				{ -90000000, 180000000 }, { 90000000, -180000000 },
+				{ 0, 0 }, { -1, 1 } };
+		final Route route = new Route();
+		route.mName = "Route";
+		for (final int[] point : points)
+			route.addPoint(point[0], point[1]);
+		final Route read = RouteTest.read(RouteTest.write(route));
+		assertEquals("Route", read.mName);
+		assertNull(read.mDescription);
+		assertEquals(points.length, read.getPointCount());
+		for (int h = 0; h < points.length; h++)
+		{
+			assertEquals(points[h][0], read.getLatitudeE6(h));
+			assertEquals(points[h][1], read.getLongitudeE6(h));
+		}
+	}
+
+	/**
+	 * A route without points survives a write and read
+	 */
+	public void testRoundTripEmpty() throws IOException
+	{
+		final Route read = RouteTest.read(RouteTest.write(new Route()));
+		assertNull(read.mName);
+		assertEquals(0, read.getPointCount());
+	}
+}
@@ -0,0 +1,630 @@
+package com.github.whentoleave.maps;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Minimal local HTTP server replaying recorded maps service responses, with
+ * configurable latency and error injection, so the travel time pipeline can
+ * be exercised reproducibly without the network. Point the app at it with
+ * {@link RouteInformation#setBackend(RouteBackend)} and a
+ * {@link HttpRouteBackend} using the server's base URL.<br />
+ * <br />
+ * Responses are matched by the request path and query, falling back to the
+ * path alone. Connections are kept alive between requests and responses are
+ * optionally gzip compressed, as with the real services. Only plain Java APIs
+ * are used so the server can run either within the tests or standalone on a
+ * development machine:
+ * 
+ * <pre>
+ * java com.github.whentoleave.maps.StubRouteServer port recordingsDir [minLatencyMs maxLatencyMs errorRate dropRate]
+ * </pre>
+ */
+public class StubRouteServer implements Runnable
+{
+	/**
+	 * Recorded response
+	 */
+	private static class Recording
+	{
+		/**
+		 * Response body
+		 */
+		final byte[] mBody;
+		/**
+		 * Response content type
+		 */
+		final String mContentType;
+
+		/**
+		 * Creates a new Recording
+		 * 
+		 * @param contentType
+		 *            response content type
+		 * @param body
+		 *            response body
+		 */
+		Recording(final String contentType, final byte[] body)
+		{
+			mContentType = contentType;
+			mBody = body;
+		}
+	}
+
+	/**
+	 * Path of Directions requests
+	 */
+	public static final String PATH_DIRECTIONS = "/maps/api/directions/json";
+	/**
+	 * Path of Distance Matrix requests
+	 */
+	public static final String PATH_DISTANCE_MATRIX = "/maps/api/distancematrix/json";
+	/**
+	 * Path of Geocoding requests
+	 */
+	public static final String PATH_GEOCODE = "/maps/api/geocode/json";
+	/**
+	 * Path of KML route requests
+	 */
+	public static final String PATH_ROUTE = "/maps";
+
+	/**
+	 * Compresses a response body
+	 * 
+	 * @param body
+	 *            body to compress
+	 * @return gzip compressed body
+	 * @throws IOException
+	 *             if the body could not be compressed
+	 */
+	private static byte[] gzip(final byte[] body) throws IOException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(body);
+		gzip.close();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reads a whole file
+	 * 
+	 * @param file
+	 *            file to read
+	 * @return contents of the file
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	private static byte[] readFile(final File file) throws IOException
+	{
+		final InputStream is = new FileInputStream(file);
+		try
+		{
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+			return out.toByteArray();
+		} finally
+		{
+			is.close();
+		}
+	}
+
+	/**
+	 * Runs the server standalone until the process is killed
+	 * 
+	 * @param args
+	 *            port, recordings directory and optionally the minimum and
+	 *            maximum latency in milliseconds, error rate and drop rate
+	 * @throws IOException
+	 *             if the recordings could not be loaded or the port could not
+	 *             be bound
+	 */
+	public static void main(final String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.err
+					.println("Usage: StubRouteServer port recordingsDir [minLatencyMs maxLatencyMs errorRate dropRate]");
+			return;
+		}
+		final StubRouteServer server = new StubRouteServer();
+		server.loadRecordings(new File(args[1]));
+		if (args.length >= 4)
+			server.setLatency(Integer.parseInt(args[2]),
+					Integer.parseInt(args[3]));
+		if (args.length >= 5)
+			server.setErrorRate(Float.parseFloat(args[4]));
+		if (args.length >= 6)
+			server.setDropRate(Float.parseFloat(args[5]));
+		server.start(Integer.parseInt(args[0]), false);
+		System.out.println("Serving " + args[1] + " on " + server.getBaseUrl());
+	}
+
+	/**
+	 * Number of connections accepted
+	 */
+	private int mConnectionCount = 0;
+	/**
+	 * Probability of closing a connection without any response
+	 */
+	private volatile float mDropRate = 0;
+	/**
+	 * Probability of responding with mErrorStatus instead of the recording
+	 */
+	private volatile float mErrorRate = 0;
+	/**
+	 * HTTP status code of injected errors
+	 */
+	private volatile int mErrorStatus = 503;
+	/**
+	 * Threads handling connections
+	 */
+	private ExecutorService mExecutor = null;
+	/**
+	 * Whether successful responses are gzip compressed for clients accepting
+	 * it
+	 */
+	private volatile boolean mGzip = false;
+	/**
+	 * Maximum injected latency in milliseconds
+	 */
+	private volatile int mMaxLatency = 0;
+	/**
+	 * Minimum injected latency in milliseconds
+	 */
+	private volatile int mMinLatency = 0;
+	/**
+	 * Source of randomness for latency and error injection
+	 */
+	private final Random mRandom;
+	/**
+	 * Recorded responses by path and query or path alone
+	 */
+	private final HashMap<String, Recording> mRecordings = new HashMap<String, Recording>();
+	/**
+	 * Number of requests received
+	 */
+	private int mRequestCount = 0;
+	/**
+	 * Socket accepting connections, null when stopped
+	 */
+	private ServerSocket mServerSocket = null;
+	/**
+	 * Open connections, closed when the server is stopped
+	 */
+	private final HashSet<Socket> mSockets = new HashSet<Socket>();
+	/**
+	 * Delay in milliseconds between each byte of a response body
+	 */
+	private volatile int mTrickleDelay = 0;
+
+	/**
+	 * Creates a new StubRouteServer with randomly seeded error injection
+	 */
+	public StubRouteServer()
+	{
+		mRandom = new Random();
+	}
+
+	/**
+	 * Creates a new StubRouteServer whose injected latency and errors are
+	 * reproducible for a given seed
+	 * 
+	 * @param seed
+	 *            seed for latency and error injection
+	 */
+	public StubRouteServer(final long seed)
+	{
+		mRandom = new Random(seed);
+	}
+
+	/**
+	 * Adds a recorded response
+	 * 
+	 * @param request
+	 *            request path, optionally with the query, e.g.
+	 *            {@link #PATH_DIRECTIONS}
+	 * @param contentType
+	 *            response content type
+	 * @param body
+	 *            response body
+	 */
+	public synchronized void addRecording(final String request,
+			final String contentType, final byte[] body)
+	{
+		mRecordings.put(request, new Recording(contentType, body));
+	}
+
+	/**
+	 * Gets the base URL of the server, to be passed to
+	 * {@link HttpRouteBackend#HttpRouteBackend(String)}
+	 * 
+	 * @return base URL of the server
+	 */
+	public synchronized String getBaseUrl()
+	{
+		return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+	}
+
+	/**
+	 * Gets the number of connections accepted since the server was created,
+	 * which is lower than the number of requests when connections are reused
+	 * 
+	 * @return number of connections accepted
+	 */
+	public synchronized int getConnectionCount()
+	{
+		return mConnectionCount;
+	}
+
+	/**
+	 * Gets the number of requests received since the server was created
+	 * 
+	 * @return number of requests received
+	 */
+	public synchronized int getRequestCount()
+	{
+		return mRequestCount;
+	}
+
+	/**
+	 * Handles a single connection, serving requests until either side closes
+	 * it
+	 * 
+	 * @param socket
+	 *            connected socket
+	 * @throws IOException
+	 *             if the connection fails
+	 */
+	private void handle(final Socket socket) throws IOException
+	{
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+				socket.getInputStream(), "ISO-8859-1"));
+		final OutputStream out = socket.getOutputStream();
+		while (handleRequest(reader, out))
+			continue;
+	}
+
+	/**
+	 * Handles a single request
+	 * 
+	 * @param reader
+	 *            reader positioned at the start of the request
+	 * @param out
+	 *            stream to write the response to
+	 * @return whether the connection should be kept open for another request
+	 * @throws IOException
+	 *             if the connection fails
+	 */
+	private boolean handleRequest(final BufferedReader reader,
+			final OutputStream out) throws IOException
+	{
+		final String requestLine = reader.readLine();
+		if (requestLine == null)
+			return false;
+		boolean acceptsGzip = false;
+		String header;
+		while ((header = reader.readLine()) != null && header.length() > 0)
+			if (header.toLowerCase().startsWith("accept-encoding:")
+					&& header.toLowerCase().contains("gzip"))
+				acceptsGzip = true;
+		final String[] parts = requestLine.split(" ");
+		final String target = parts.length > 1 ? parts[1] : "/";
+		final int queryStart = target.indexOf('?');
+		final String path = queryStart == -1 ? target : target.substring(0,
+				queryStart);
+		Recording recording;
+		final float errorDraw;
+		final float dropDraw;
+		final int latency;
+		synchronized (this)
+		{
+			mRequestCount++;
+			recording = mRecordings.get(target);
+			if (recording == null)
+				recording = mRecordings.get(path);
+			errorDraw = mRandom.nextFloat();
+			dropDraw = mRandom.nextFloat();
+			latency = mMinLatency
+					+ (mMaxLatency > mMinLatency ? mRandom.nextInt(mMaxLatency
+							- mMinLatency + 1) : 0);
+		}
+		if (latency > 0)
+			try
+			{
+				Thread.sleep(latency);
+			} catch (final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		if (dropDraw < mDropRate)
+			return false;
+		if (errorDraw < mErrorRate)
+			return writeResponse(out, mErrorStatus, "text/plain",
+					"Injected error".getBytes("UTF-8"), false);
+		else if (recording == null)
+			return writeResponse(out, 404, "text/plain",
+					("No recording for " + path).getBytes("UTF-8"), false);
+		else
+			return writeResponse(out, 200, recording.mContentType,
+					recording.mBody, mGzip && acceptsGzip);
+	}
+
+	/**
+	 * Loads recorded responses from a directory. Recognized files are
+	 * directions.json, distancematrix.json, geocode.json and route.kml, each
+	 * being served for every request to the corresponding service.
+	 * 
+	 * @param directory
+	 *            directory containing the recordings
+	 * @throws IOException
+	 *             if a recording could not be read
+	 */
+	public void loadRecordings(final File directory) throws IOException
+	{
+		final String[][] files = {
+				{ "directions.json", StubRouteServer.PATH_DIRECTIONS,
+						"application/json" },
+				{ "distancematrix.json", StubRouteServer.PATH_DISTANCE_MATRIX,
+						"application/json" },
+				{ "geocode.json", StubRouteServer.PATH_GEOCODE,
+						"application/json" },
+				{ "route.kml", StubRouteServer.PATH_ROUTE,
+						"application/vnd.google-earth.kml+xml" } };
+		for (final String[] file : files)
+		{
+			final File recording = new File(directory, file[0]);
+			if (recording.isFile())
+				addRecording(file[1], file[2],
+						StubRouteServer.readFile(recording));
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		final ServerSocket serverSocket;
+		final ExecutorService executor;
+		synchronized (this)
+		{
+			serverSocket = mServerSocket;
+			executor = mExecutor;
+		}
+		while (!serverSocket.isClosed())
+			try
+			{
+				final Socket socket = serverSocket.accept();
+				synchronized (this)
+				{
+					mConnectionCount++;
+					mSockets.add(socket);
+				}
+				executor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							handle(socket);
+						} catch (final IOException e)
+						{
+							// The client went away
+						} finally
+						{
+							synchronized (StubRouteServer.this)
+							{
+								mSockets.remove(socket);
+							}
+							try
+							{
+								socket.close();
+							} catch (final IOException e)
+							{
+								// Nothing more can be done
+							}
+						}
+					}
+				});
+			} catch (final IOException e)
+			{
+				// Thrown when the server socket is closed by stop()
+			}
+	}
+
+	/**
+	 * Sets the probability of closing a connection without any response
+	 * 
+	 * @param dropRate
+	 *            probability from 0 to 1
+	 */
+	public void setDropRate(final float dropRate)
+	{
+		mDropRate = dropRate;
+	}
+
+	/**
+	 * Sets the probability of responding with an error instead of the
+	 * recording
+	 * 
+	 * @param errorRate
+	 *            probability from 0 to 1
+	 */
+	public void setErrorRate(final float errorRate)
+	{
+		mErrorRate = errorRate;
+	}
+
+	/**
+	 * Sets the HTTP status code of injected errors, 503 by default
+	 * 
+	 * @param errorStatus
+	 *            HTTP status code
+	 */
+	public void setErrorStatus(final int errorStatus)
+	{
+		mErrorStatus = errorStatus;
+	}
+
+	/**
+	 * Sets whether successful responses are gzip compressed for clients
+	 * accepting it, false by default
+	 * 
+	 * @param gzip
+	 *            whether to compress responses
+	 */
+	public void setGzip(final boolean gzip)
+	{
+		mGzip = gzip;
+	}
+
+	/**
+	 * Sets the range of latency added before each response
+	 * 
+	 * @param minLatency
+	 *            minimum latency in milliseconds
+	 * @param maxLatency
+	 *            maximum latency in milliseconds
+	 */
+	public void setLatency(final int minLatency, final int maxLatency)
+	{
+		mMinLatency = minLatency;
+		mMaxLatency = Math.max(minLatency, maxLatency);
+	}
+
+	/**
+	 * Sets the delay between each byte of a response body, so that reading
+	 * the body is slow even though every single read is quick
+	 * 
+	 * @param trickleDelay
+	 *            delay in milliseconds, 0 by default
+	 */
+	public void setTrickleDelay(final int trickleDelay)
+	{
+		mTrickleDelay = trickleDelay;
+	}
+
+	/**
+	 * Starts serving on the loopback interface
+	 * 
+	 * @param port
+	 *            port to listen on, or 0 for any free port
+	 * @param daemon
+	 *            whether the server's threads should not keep the process
+	 *            alive
+	 * @throws IOException
+	 *             if the port could not be bound
+	 */
+	public synchronized void start(final int port, final boolean daemon)
+			throws IOException
+	{
+		if (mServerSocket != null)
+			return;
+		mServerSocket = new ServerSocket(port, 50,
+				InetAddress.getByName("127.0.0.1"));
+		mExecutor = Executors.newCachedThreadPool();
+		final Thread thread = new Thread(this, "StubRouteServer");
+		thread.setDaemon(daemon);
+		thread.start();
+	}
+
+	/**
+	 * Stops the server, closing any open connections
+	 */
+	public synchronized void stop()
+	{
+		if (mServerSocket == null)
+			return;
+		try
+		{
+			mServerSocket.close();
+		} catch (final IOException e)
+		{
+			// Already closed
+		}
+		for (final Socket socket : mSockets)
+			try
+			{
+				socket.close();
+			} catch (final IOException e)
+			{
+				// Already closed
+			}
+		mSockets.clear();
+		mExecutor.shutdownNow();
+		mServerSocket = null;
+		mExecutor = null;
+	}
+
+	/**
+	 * Writes a complete HTTP response, keeping the connection alive
+	 * 
+	 * @param out
+	 *            stream to write to
+	 * @param status
+	 *            HTTP status code
+	 * @param contentType
+	 *            content type of the body
+	 * @param body
+	 *            response body
+	 * @param gzip
+	 *            whether to compress the body
+	 * @return false if the server was stopped while writing the response
+	 * @throws IOException
+	 *             if the response could not be written
+	 */
+	private boolean writeResponse(final OutputStream out, final int status,
+			final String contentType, final byte[] body, final boolean gzip)
+			throws IOException
+	{
+		final byte[] content = gzip ? StubRouteServer.gzip(body) : body;
+		final StringBuilder headers = new StringBuilder();
+		headers.append("HTTP/1.1 ").append(status)
+				.append(status == 200 ? " OK" : " Error").append("\r\n");
+		headers.append("Content-Type: ").append(contentType).append("\r\n");
+		if (gzip)
+			headers.append("Content-Encoding: gzip\r\n");
+		headers.append("Content-Length: ").append(content.length)
+				.append("\r\n");
+		headers.append("Connection: keep-alive\r\n\r\n");
+		out.write(headers.toString().getBytes("ISO-8859-1"));
+		final int trickleDelay = mTrickleDelay;
+		if (trickleDelay == 0)
+			out.write(content);
+		else
+			for (final byte b : content)
+			{
+				out.write(b);
+				out.flush();
+				try
+				{
+					Thread.sleep(trickleDelay);
+				} catch (final InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		out.flush();
+		return true;
+	}
+}